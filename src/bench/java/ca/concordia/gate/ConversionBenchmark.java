@@ -0,0 +1,112 @@
+package ca.concordia.gate;
+
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.trees.Tree;
+import gate.AnnotationSet;
+import gate.Document;
+import gate.Gate;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Microbenchmarks for the code that turns CoreNLP output into GATE annotations.
+ *
+ * Everything runs on {@link ConversionFixtures}, so the numbers only move when the
+ * conversion code does. Run with: mvn -Pbench test-compile exec:exec
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConversionBenchmark {
+
+  @Param({"10", "100"})
+  public int sentences;
+
+  private ConversionFixtures fixtures;
+  private Document document;
+  private Document tokenizedDocument;
+  private Document parsedDocument;
+  private AnnotationSet outputAS;
+  private CoreNLP parser;
+  private DependencyNodeGenerator nodeGenerator;
+
+  @Setup(Level.Trial)
+  public void setUpTrial() throws Exception {
+    if (!Gate.isInitialised()) {
+      Gate.runInSandbox(true);
+      Gate.init();
+    }
+    this.fixtures = new ConversionFixtures(this.sentences);
+    this.document = this.fixtures.newDocument();
+    this.tokenizedDocument = this.fixtures.newTokenizedDocument();
+    this.parsedDocument = this.fixtures.newParsedDocument();
+    this.parser = new CoreNLP();
+    this.nodeGenerator = new DependencyNodeGenerator();
+    this.nodeGenerator.setDocument(this.parsedDocument);
+  }
+
+  @Setup(Level.Invocation)
+  public void setUpInvocation() {
+    // every invocation writes into an empty annotation set
+    this.document.removeAnnotationSet("bench");
+    this.outputAS = this.document.getAnnotations("bench");
+    AnnotationSet parsedAS = this.parsedDocument.getAnnotations();
+    parsedAS.removeAll(new ArrayList<>(parsedAS.get("DependencyTreeNode")));
+  }
+
+  @Benchmark
+  public void createSyntaxTreeNode(Blackhole blackhole) {
+    int sentenceOffset = 1;
+    for (int s = 0; s < this.fixtures.trees.size(); s++) {
+      Tree tree = this.fixtures.trees.get(s);
+      List<Tree> nodeOrdering = tree.preOrderNodeList();
+      blackhole.consume(this.parser.createSyntaxTreeNode(tree, this.fixtures.tokens.get(s), tree.getLeaves(),
+              nodeOrdering, sentenceOffset, this.outputAS));
+      sentenceOffset += nodeOrdering.size() + 1;
+    }
+  }
+
+  @Benchmark
+  public void createToken(Blackhole blackhole) {
+    int sentenceOffset = 1;
+    for (int s = 0; s < this.fixtures.trees.size(); s++) {
+      Tree tree = this.fixtures.trees.get(s);
+      List<Tree> nodeOrdering = tree.preOrderNodeList();
+      blackhole.consume(this.parser.createToken(tree, this.fixtures.tokens.get(s), tree.getLeaves(),
+              nodeOrdering, sentenceOffset, this.outputAS));
+      sentenceOffset += nodeOrdering.size() + 1;
+    }
+  }
+
+  @Benchmark
+  public Annotation addTokens() {
+    this.parser.setDocument(this.tokenizedDocument);
+    Annotation annotation = new Annotation(this.fixtures.text);
+    this.parser.addTokens(annotation);
+    return annotation;
+  }
+
+  @Benchmark
+  public List<DependencyAnn> dependencyLoop() {
+    List<DependencyAnn> dependencyAnnList = new ArrayList<>();
+    int sentenceOffset = 1;
+    for (int s = 0; s < this.fixtures.graphs.size(); s++) {
+      this.parser.addTokensWithDependencies(this.fixtures.graphs.get(s), this.fixtures.posTags.get(s),
+              sentenceOffset, this.outputAS, dependencyAnnList);
+      sentenceOffset += ConversionFixtures.WORDS.length + 1;
+    }
+    return dependencyAnnList;
+  }
+
+  @Benchmark
+  public void dependencyNodeGenerator() throws Exception {
+    this.nodeGenerator.execute();
+  }
+}
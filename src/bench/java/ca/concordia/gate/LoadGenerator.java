@@ -0,0 +1,223 @@
+package ca.concordia.gate;
+
+import gate.Corpus;
+import gate.CorpusController;
+import gate.Document;
+import gate.Factory;
+import gate.ProcessingResource;
+import gate.creole.SerialAnalyserController;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load test for the CoreNLP PR: documents arrive at a configured rate whether or not the
+ * previous ones are done, as they would in a service, so queueing shows up in the latencies.
+ *
+ * The PR runs inside a GATE {@link CorpusController}, duplicated into the given number of
+ * instances, each serving one worker thread. For every offered rate the generator reports the
+ * achieved throughput, latency percentiles measured from each document's intended arrival time
+ * (which corrects for coordinated omission) next to the pure service time, peak heap and GC
+ * counts and time. The highest rate that is sustained, meaning at least 95% of it is achieved and
+ * the corrected p99 stays within the SLA, is reported as the saturation point.
+ * <pre>
+ * mvn -Pbench test-compile exec:exec -Dbench.main=ca.concordia.gate.LoadGenerator \
+ *     -Dbench.args="--instances 4 --rates 1,2,4,8,16 --docs 300 --sla 2000 --out load-results"
+ * </pre>
+ * Options:
+ * <ul>
+ *   <li>--language english or spanish (default english)</li>
+ *   <li>--instances duplicated application instances and worker threads (default 1)</li>
+ *   <li>--rates offered rates in documents per second, swept in order (default 1,2,4,8)</li>
+ *   <li>--arrivals uniform or poisson inter-arrival times (default poisson)</li>
+ *   <li>--docs measured documents per rate (default 200), --warmup unmeasured ones (default 20)</li>
+ *   <li>--sla corrected p99 limit in milliseconds for a rate to count as sustained (default 1000)</li>
+ *   <li>--sentences, --lengths, --seed and --param as for {@link ThroughputHarness}</li>
+ *   <li>--out results file prefix, writes PREFIX.csv and PREFIX.json (default load-results)</li>
+ * </ul>
+ * The CoreNLP PR runs with its own tokenizer and sentence splitter, plus parse unless
+ * --param includeParse=false is given.
+ */
+public class LoadGenerator {
+
+  static final String[] HEADER = {"language", "instances", "arrivals", "offeredPerSec", "achievedPerSec", "docs",
+          "p50Ms", "p95Ms", "p99Ms", "maxMs", "serviceP50Ms", "serviceP99Ms", "maxQueued", "sustained",
+          "peakHeapMb", "gcCount", "gcMs"};
+
+  private static final double SUSTAINED_FRACTION = 0.95;
+
+  public static void main(String[] args) throws Exception {
+    Map<String, List<String>> options = ThroughputHarness.parseOptions(args);
+    String language = ThroughputHarness.option(options, "language", "english");
+    int instances = Integer.parseInt(ThroughputHarness.option(options, "instances", "1"));
+    String arrivals = ThroughputHarness.option(options, "arrivals", "poisson");
+    int docs = Integer.parseInt(ThroughputHarness.option(options, "docs", "200"));
+    int warmup = Integer.parseInt(ThroughputHarness.option(options, "warmup", "20"));
+    double sla = Double.parseDouble(ThroughputHarness.option(options, "sla", "1000"));
+    int sentences = Integer.parseInt(ThroughputHarness.option(options, "sentences", "10"));
+    String lengths = ThroughputHarness.option(options, "lengths", "lognormal:18:0.5");
+    long seed = Long.parseLong(ThroughputHarness.option(options, "seed", "42"));
+    String out = ThroughputHarness.option(options, "out", "load-results");
+    Map<String, Object> params = new LinkedHashMap<>();
+    params.put("language", language);
+    params.put("includeTokenizer", true);
+    params.put("includeSentenceSplitter", true);
+    params.put("includeParse", true);
+    for (String param : options.getOrDefault("param", Collections.emptyList())) {
+      String[] nameValue = param.split("=", 2);
+      params.put(nameValue[0], ThroughputHarness.parameterValue(nameValue[1]));
+    }
+
+    ThroughputHarness.initGate();
+    List<String> corpus = new SyntheticCorpus(language, lengths, seed).documents(warmup + docs, sentences);
+    List<CorpusController> controllers = controllers(params, instances);
+    List<String[]> rows = new ArrayList<>();
+    String saturation = "none";
+    System.out.println(String.join("\t", HEADER));
+    try {
+      for (String rate : ThroughputHarness.split(ThroughputHarness.option(options, "rates", "1,2,4,8"))) {
+        String[] row = run(language, controllers, arrivals, Double.parseDouble(rate), corpus, warmup, seed, sla);
+        System.out.println(String.join("\t", row));
+        rows.add(row);
+        if (Boolean.parseBoolean(row[13])) {
+          saturation = row[3];
+        }
+      }
+    } finally {
+      for (CorpusController controller : controllers) {
+        Factory.deleteResource(controller);
+      }
+    }
+    System.out.println("Highest sustained rate: " + saturation + " docs/sec");
+    ThroughputHarness.writeCsv(out + ".csv", HEADER, rows);
+    ThroughputHarness.writeJson(out + ".json", HEADER, rows, 0, 2);
+  }
+
+  /**
+   * One application holding the CoreNLP PR, and duplicates of it up to the given number of instances.
+   */
+  static List<CorpusController> controllers(Map<String, Object> params, int instances) throws Exception {
+    ProcessingResource parser = (ProcessingResource) Factory.createResource("ca.concordia.gate.CoreNLP");
+    for (Map.Entry<String, Object> param : params.entrySet()) {
+      parser.setParameterValue(param.getKey(), param.getValue());
+    }
+    SerialAnalyserController controller =
+            (SerialAnalyserController) Factory.createResource("gate.creole.SerialAnalyserController");
+    controller.add(parser);
+    controller.setCorpus(Factory.newCorpus("load"));
+    List<CorpusController> controllers = new ArrayList<>();
+    controllers.add(controller);
+    for (int i = 1; i < instances; i++) {
+      CorpusController copy = (CorpusController) Factory.duplicate(controller);
+      copy.setCorpus(Factory.newCorpus("load" + i));
+      controllers.add(copy);
+    }
+    return controllers;
+  }
+
+  /**
+   * Offer the corpus at the given rate to the pool of controllers; the first warmup documents are
+   * not measured.
+   */
+  static String[] run(String language, List<CorpusController> controllers, String arrivals, double rate,
+                      List<String> corpus, int warmup, long seed, double sla) throws Exception {
+    BlockingQueue<CorpusController> idle = new LinkedBlockingQueue<>(controllers);
+    ExecutorService workers = Executors.newFixedThreadPool(controllers.size());
+    LatencyHistogram corrected = new LatencyHistogram();
+    LatencyHistogram service = new LatencyHistogram();
+    AtomicLong queued = new AtomicLong();
+    AtomicLong maxQueued = new AtomicLong();
+    AtomicLong measuredEnd = new AtomicLong();
+    Random random = new Random(seed);
+    double meanInterval = 1e9 / rate;
+
+    System.gc();
+    ThroughputHarness.resetPeakHeap();
+    long[] gcBefore = gcTotals();
+    long measuredStart = 0;
+    try {
+      long intended = System.nanoTime();
+      for (int i = 0; i < corpus.size(); i++) {
+        // intended arrival times are fixed up front, so a slow document delays the ones behind it
+        // only through the queue, never by holding back their arrival
+        intended += arrivals.equals("uniform") ? (long) meanInterval
+                : (long) (-Math.log(1 - random.nextDouble()) * meanInterval);
+        long wait;
+        while ((wait = intended - System.nanoTime()) > 0) {
+          LockSupport.parkNanos(wait);
+        }
+        if (i == warmup) {
+          measuredStart = intended;
+        }
+        boolean measured = i >= warmup;
+        long arrival = intended;
+        String text = corpus.get(i);
+        maxQueued.accumulateAndGet(queued.incrementAndGet(), Math::max);
+        workers.execute(() -> {
+          CorpusController controller = null;
+          try {
+            controller = idle.take();
+            queued.decrementAndGet();
+            long start = System.nanoTime();
+            process(controller, text);
+            long end = System.nanoTime();
+            if (measured) {
+              corrected.record(end - arrival);
+              service.record(end - start);
+              measuredEnd.accumulateAndGet(end, Math::max);
+            }
+          } catch (Exception e) {
+            e.printStackTrace();
+          } finally {
+            if (controller != null) {
+              idle.add(controller);
+            }
+          }
+        });
+      }
+    } finally {
+      workers.shutdown();
+      workers.awaitTermination(1, TimeUnit.DAYS);
+    }
+    long[] gcAfter = gcTotals();
+
+    long measured = corpus.size() - warmup;
+    double achieved = measured / ((measuredEnd.get() - measuredStart) / 1e9);
+    boolean sustained = achieved >= rate * SUSTAINED_FRACTION && corrected.getP99Millis() <= sla;
+    return new String[]{language, String.valueOf(controllers.size()), arrivals, ThroughputHarness.format(rate),
+            ThroughputHarness.format(achieved), String.valueOf(measured),
+            ThroughputHarness.format(corrected.getP50Millis()), ThroughputHarness.format(corrected.getP95Millis()),
+            ThroughputHarness.format(corrected.getP99Millis()), ThroughputHarness.format(corrected.getMaxMillis()),
+            ThroughputHarness.format(service.getP50Millis()), ThroughputHarness.format(service.getP99Millis()),
+            String.valueOf(maxQueued.get()), String.valueOf(sustained),
+            ThroughputHarness.format(ThroughputHarness.peakHeap() / (1024.0 * 1024.0)),
+            String.valueOf(gcAfter[0] - gcBefore[0]), String.valueOf(gcAfter[1] - gcBefore[1])};
+  }
+
+  private static void process(CorpusController controller, String text) throws Exception {
+    Document document = Factory.newDocument(text);
+    Corpus corpus = controller.getCorpus();
+    try {
+      corpus.add(document);
+      controller.execute();
+    } finally {
+      corpus.clear();
+      Factory.deleteResource(document);
+    }
+  }
+
+  /** Collections and milliseconds spent in them so far, summed over all collectors. */
+  private static long[] gcTotals() {
+    long count = 0;
+    long time = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      count += Math.max(0, gc.getCollectionCount());
+      time += Math.max(0, gc.getCollectionTime());
+    }
+    return new long[]{count, time};
+  }
+}
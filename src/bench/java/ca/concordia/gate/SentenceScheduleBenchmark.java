@@ -0,0 +1,106 @@
+package ca.concordia.gate;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.pipeline.Annotation;
+
+import java.util.*;
+
+/**
+ * Per-document latency of parsing the sentences of a document in parallel, with the sentences started longest
+ * first against in document order (see {@link SentenceScheduler}).
+ *
+ * The documents are tokenized, split and tagged once up front. Then, for every schedule, they are parsed one at
+ * a time through a {@link StagedPipeline} with "sentenceThreads.count" set, so the latency of a document is the
+ * time until its last sentence is parsed. A wide length distribution shows the difference best: in document
+ * order, a long sentence near the end starts late and leaves the other threads idle.
+ * <pre>
+ * mvn -Pbench test-compile exec:exec -Dbench.main=ca.concordia.gate.SentenceScheduleBenchmark \
+ *     -Dbench.args="--threads 4 --docs 100 --sentences 16 --lengths lognormal:18:0.7"
+ * </pre>
+ * Options:
+ * <ul>
+ *   <li>--language english or spanish (default english)</li>
+ *   <li>--schedules schedules to compare (default lpt,inorder)</li>
+ *   <li>--threads threads the sentences of a document are parsed on (default 4)</li>
+ *   <li>--sr true to use the SR parser rather than the PCFG parser for English (default false)</li>
+ *   <li>--annotators the stages measured (default parse,depparse)</li>
+ *   <li>--docs measured documents per schedule (default 100), --warmup unmeasured ones (default 10)</li>
+ *   <li>--sentences sentences per document (default 16), --lengths, --seed as for {@link ThroughputHarness}
+ *       (default lengths lognormal:18:0.7)</li>
+ *   <li>--out results file prefix, writes PREFIX.csv and PREFIX.json (default sentence-schedule)</li>
+ * </ul>
+ */
+public class SentenceScheduleBenchmark {
+
+  static final String[] HEADER = {"language", "parser", "schedule", "threads", "docs", "sentences", "seconds",
+          "sentencesPerSec", "p50Ms", "p95Ms", "p99Ms", "maxMs"};
+
+  public static void main(String[] args) throws Exception {
+    Map<String, List<String>> options = ThroughputHarness.parseOptions(args);
+    String language = ThroughputHarness.option(options, "language", "english");
+    List<String> schedules = ThroughputHarness.split(ThroughputHarness.option(options, "schedules", "lpt,inorder"));
+    String threads = ThroughputHarness.option(options, "threads", "4");
+    boolean sr = Boolean.parseBoolean(ThroughputHarness.option(options, "sr", "false"));
+    String annotators = ThroughputHarness.option(options, "annotators", "parse,depparse");
+    int docs = Integer.parseInt(ThroughputHarness.option(options, "docs", "100"));
+    int warmup = Integer.parseInt(ThroughputHarness.option(options, "warmup", "10"));
+    int sentences = Integer.parseInt(ThroughputHarness.option(options, "sentences", "16"));
+    String lengths = ThroughputHarness.option(options, "lengths", "lognormal:18:0.7");
+    long seed = Long.parseLong(ThroughputHarness.option(options, "seed", "42"));
+    String out = ThroughputHarness.option(options, "out", "sentence-schedule");
+
+    Properties props = PipelineProfile.load(language);
+    if (sr && !language.equals("spanish")) {
+      props.setProperty("parse.model", "edu/stanford/nlp/models/srparser/englishSR.beam.ser.gz");
+    }
+    List<Annotation> corpus = new ArrayList<>();
+    Properties tagProps = new Properties();
+    tagProps.putAll(props);
+    tagProps.setProperty("annotators", "tokenize,ssplit,pos");
+    try (StagedPipeline.Lease tagger = StagedPipeline.get(tagProps)) {
+      for (String text : new SyntheticCorpus(language, lengths, seed).documents(warmup + docs, sentences)) {
+        Annotation document = new Annotation(text);
+        tagger.annotate(document);
+        corpus.add(document);
+      }
+    }
+    long sentenceCount = 0;
+    for (int i = warmup; i < corpus.size(); i++) {
+      sentenceCount += corpus.get(i).get(CoreAnnotations.SentencesAnnotation.class).size();
+    }
+
+    List<String[]> rows = new ArrayList<>();
+    System.out.println(String.join("\t", HEADER));
+    for (String schedule : schedules) {
+      Properties parseProps = new Properties();
+      parseProps.putAll(props);
+      parseProps.setProperty("annotators", annotators);
+      parseProps.setProperty(StagedPipeline.SENTENCE_THREADS_PROPERTY, threads);
+      parseProps.setProperty(StagedPipeline.SCHEDULE_PROPERTY, schedule.trim());
+      LatencyHistogram latency = new LatencyHistogram();
+      double seconds;
+      try (StagedPipeline.Lease pipeline = StagedPipeline.get(parseProps)) {
+        for (int i = 0; i < warmup; i++) {
+          pipeline.annotate(corpus.get(i));
+        }
+        long start = System.nanoTime();
+        for (int i = warmup; i < corpus.size(); i++) {
+          long documentStart = System.nanoTime();
+          pipeline.annotate(corpus.get(i));
+          latency.record(System.nanoTime() - documentStart);
+        }
+        seconds = (System.nanoTime() - start) / 1e9;
+      }
+      String[] row = {language, props.getProperty("parse.model", "default"), schedule.trim(), threads,
+              String.valueOf(docs), String.valueOf(sentenceCount), ThroughputHarness.format(seconds),
+              ThroughputHarness.format(sentenceCount / seconds), ThroughputHarness.format(latency.getP50Millis()),
+              ThroughputHarness.format(latency.getP95Millis()), ThroughputHarness.format(latency.getP99Millis()),
+              ThroughputHarness.format(latency.getMaxMillis())};
+      System.out.println(String.join("\t", row));
+      rows.add(row);
+    }
+    ThroughputHarness.writeCsv(out + ".csv", HEADER, rows);
+    ThroughputHarness.writeJson(out + ".json", HEADER, rows, 0, 1, 2);
+    System.out.println("Wrote " + out + ".csv and " + out + ".json");
+  }
+}
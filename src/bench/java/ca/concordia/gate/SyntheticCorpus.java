@@ -0,0 +1,147 @@
+package ca.concordia.gate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates a reproducible corpus of English or Spanish documents whose sentence lengths follow a
+ * given distribution.
+ *
+ * Sentences are built from a small vocabulary as a noun phrase and verb phrase followed by
+ * prepositional phrases and coordinated clauses until they reach their target length, so that
+ * the parsers see plausible structure at every length. The same seed always gives the same corpus.
+ */
+public class SyntheticCorpus {
+
+  private static final String[][] ENGLISH = {
+          {"the", "a", "every", "some", "this"},
+          {"small", "old", "red", "quiet", "famous", "strange", "local"},
+          {"dog", "teacher", "river", "company", "city", "report", "student", "engine", "garden"},
+          {"saw", "built", "found", "described", "moved", "liked", "visited", "opened"},
+          {"near", "under", "behind", "with", "from", "after", "inside"},
+          {"and", "but", "while"}
+  };
+
+  private static final String[][] SPANISH = {
+          {"el", "un", "este", "aquel", "cada"},
+          {"pequeño", "viejo", "rojo", "tranquilo", "famoso", "extraño", "local"},
+          {"perro", "maestro", "río", "pueblo", "informe", "estudiante", "motor", "jardín"},
+          {"vio", "construyó", "encontró", "describió", "movió", "visitó", "abrió"},
+          {"cerca", "bajo", "detrás", "con", "desde", "tras", "dentro"},
+          {"y", "pero", "mientras"}
+  };
+
+  private static final int DET = 0, ADJ = 1, NOUN = 2, VERB = 3, PREP = 4, CONJ = 5;
+
+  private final String[][] vocabulary;
+  private final LengthDistribution lengths;
+  private final Random random;
+
+  /**
+   * @param language     "english" or "spanish"
+   * @param distribution sentence length distribution, see {@link LengthDistribution#parse}
+   * @param seed         random seed
+   */
+  public SyntheticCorpus(String language, String distribution, long seed) {
+    this.vocabulary = language.equals("spanish") ? SPANISH : ENGLISH;
+    this.lengths = LengthDistribution.parse(distribution);
+    this.random = new Random(seed);
+  }
+
+  /** Generate the given number of documents of the given number of sentences. */
+  public List<String> documents(int count, int sentencesPerDocument) {
+    List<String> documents = new ArrayList<>();
+    for (int d = 0; d < count; d++) {
+      StringBuilder document = new StringBuilder();
+      for (int s = 0; s < sentencesPerDocument; s++) {
+        if (s > 0) {
+          document.append(' ');
+        }
+        document.append(sentence(this.lengths.sample(this.random)));
+      }
+      documents.add(document.toString());
+    }
+    return documents;
+  }
+
+  /** Generate one sentence of exactly the given number of tokens, including the final period. */
+  public String sentence(int length) {
+    List<String> words = new ArrayList<>();
+    nounPhrase(words);
+    words.add(word(VERB));
+    nounPhrase(words);
+    while (words.size() < length - 1) {
+      if (this.random.nextInt(3) == 0) {
+        words.add(word(CONJ));
+        nounPhrase(words);
+        words.add(word(VERB));
+      } else {
+        words.add(word(PREP));
+      }
+      nounPhrase(words);
+    }
+    List<String> sentence = new ArrayList<>(words.subList(0, Math.max(1, length - 1)));
+    String first = sentence.get(0);
+    sentence.set(0, Character.toUpperCase(first.charAt(0)) + first.substring(1));
+    return String.join(" ", sentence) + " .";
+  }
+
+  private void nounPhrase(List<String> words) {
+    words.add(word(DET));
+    if (this.random.nextBoolean()) {
+      words.add(word(ADJ));
+    }
+    words.add(word(NOUN));
+  }
+
+  private String word(int category) {
+    String[] words = this.vocabulary[category];
+    return words[this.random.nextInt(words.length)];
+  }
+
+  /**
+   * A sentence length distribution, written as fixed:N, uniform:MIN:MAX or lognormal:MEDIAN:SIGMA.
+   * Lengths are clipped to [3, 250].
+   */
+  public static class LengthDistribution {
+    private final String kind;
+    private final double a;
+    private final double b;
+
+    private LengthDistribution(String kind, double a, double b) {
+      this.kind = kind;
+      this.a = a;
+      this.b = b;
+    }
+
+    public static LengthDistribution parse(String spec) {
+      String[] parts = spec.split(":");
+      switch (parts[0]) {
+        case "fixed":
+          return new LengthDistribution("fixed", Double.parseDouble(parts[1]), 0);
+        case "uniform":
+          return new LengthDistribution("uniform", Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+        case "lognormal":
+          return new LengthDistribution("lognormal", Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+        default:
+          throw new IllegalArgumentException("Unknown length distribution: " + spec);
+      }
+    }
+
+    public int sample(Random random) {
+      double length;
+      switch (this.kind) {
+        case "fixed":
+          length = this.a;
+          break;
+        case "uniform":
+          length = this.a + random.nextInt((int) (this.b - this.a) + 1);
+          break;
+        default:
+          length = this.a * Math.exp(this.b * random.nextGaussian());
+      }
+      return (int) Math.max(3, Math.min(250, Math.round(length)));
+    }
+  }
+}
@@ -0,0 +1,373 @@
+package ca.concordia.gate;
+
+import gate.Document;
+import gate.Factory;
+import gate.Gate;
+import gate.LanguageAnalyser;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.*;
+
+/**
+ * End-to-end throughput and latency benchmark for the CoreNLP PR over a {@link SyntheticCorpus}.
+ *
+ * Every configuration (language, tokenizer or GATE tokens, with or without parse, with or without
+ * the SR parser) runs over the same generated documents, and reports docs/sec, tokens/sec,
+ * p50/p95/p99 per-document latency and peak heap, to the console and as CSV and JSON.
+ * <pre>
+ * mvn -Pbench test-compile exec:exec -Dbench.main=ca.concordia.gate.ThroughputHarness \
+ *     -Dbench.args="--languages english,spanish --docs 200 --lengths lognormal:18:0.5 --out results"
+ * </pre>
+ * Options:
+ * <ul>
+ *   <li>--languages english,spanish (default english)</li>
+ *   <li>--modes any of tokenizer-parse, tokenizer-noparse, tokens-parse, tokens-noparse (default these four),
+ *       and segmenter or tokenizer-splitter, which time CoreSegmenter, or CoreTokenizer followed by
+ *       CoreSentenceSplitter, instead of the New Stanford Parser; the PRs are shown with the params</li>
+ *   <li>--stats on, off or on,off (default on): whether {@link PipelineStats} records while the configuration
+ *       runs; with both, each configuration runs once with and once without, to measure the cost of the
+ *       instrumentation; off is shown with the params</li>
+ *   <li>--sr true, false or both (default both); only applies to English with parse</li>
+ *   <li>--docs measured documents per configuration (default 200), --warmup unmeasured ones (default 20)</li>
+ *   <li>--sentences sentences per document (default 10)</li>
+ *   <li>--lengths sentence length distribution, fixed:N, uniform:MIN:MAX or lognormal:MEDIAN:SIGMA
+ *       (default lognormal:18:0.5)</li>
+ *   <li>--seed corpus seed (default 42)</li>
+ *   <li>--param name=value extra CoreNLP runtime parameter, may be repeated</li>
+ *   <li>--profiles pipeline profiles to compare, e.g. fast,balanced,accurate (default the PR's default); the
+ *       profile is shown with the params</li>
+ *   <li>--label free text copied to every result row, e.g. the release being measured</li>
+ *   <li>--out results file prefix, writes PREFIX.csv and PREFIX.json (default bench-results)</li>
+ * </ul>
+ * Peak heap is the sum of the peak usage of the heap memory pools during a configuration, after a
+ * GC at its start, so it is an upper bound.
+ */
+public class ThroughputHarness {
+
+  /** The params key that shows a configuration ran with {@link PipelineStats} disabled. */
+  static final String STATS = "stats";
+
+  static final String[] HEADER = {"label", "language", "tokenizer", "parse", "srParse", "params", "docs", "tokens",
+          "seconds", "docsPerSec", "tokensPerSec", "p50Ms", "p95Ms", "p99Ms", "maxMs", "peakHeapMb"};
+
+  /** The modes that time tokenizing and sentence splitting PRs, with the PRs they run. */
+  static final Map<String, List<String>> SEGMENTATION_MODES = new LinkedHashMap<>();
+
+  static {
+    SEGMENTATION_MODES.put("segmenter", Collections.singletonList("CoreSegmenter"));
+    SEGMENTATION_MODES.put("tokenizer-splitter", Arrays.asList("CoreTokenizer", "CoreSentenceSplitter"));
+  }
+
+  public static void main(String[] args) throws Exception {
+    Map<String, List<String>> options = parseOptions(args);
+    List<String> languages = split(option(options, "languages", "english"));
+    List<String> modes = split(option(options, "modes", "tokenizer-parse,tokenizer-noparse,tokens-parse,tokens-noparse"));
+    String sr = option(options, "sr", "both");
+    List<String> stats = split(option(options, "stats", "on"));
+    int docs = Integer.parseInt(option(options, "docs", "200"));
+    int warmup = Integer.parseInt(option(options, "warmup", "20"));
+    int sentences = Integer.parseInt(option(options, "sentences", "10"));
+    String lengths = option(options, "lengths", "lognormal:18:0.5");
+    long seed = Long.parseLong(option(options, "seed", "42"));
+    String label = option(options, "label", "");
+    String out = option(options, "out", "bench-results");
+    Map<String, Object> params = new LinkedHashMap<>();
+    for (String param : options.getOrDefault("param", Collections.emptyList())) {
+      String[] nameValue = param.split("=", 2);
+      params.put(nameValue[0], parameterValue(nameValue[1]));
+    }
+    List<String> profiles = options.containsKey("profiles") ? split(option(options, "profiles", null))
+            : Collections.singletonList(null);
+
+    initGate();
+    List<String[]> rows = new ArrayList<>();
+    System.out.println(String.join("\t", HEADER));
+    for (String language : languages) {
+      List<String> corpus = new SyntheticCorpus(language, lengths, seed).documents(warmup + docs, sentences);
+      for (String mode : modes) {
+        if (SEGMENTATION_MODES.containsKey(mode)) {
+          for (String statsSetting : stats) {
+            Map<String, Object> runParams = statsParams(params, statsSetting);
+            String[] row = runSegmentation(label, language, SEGMENTATION_MODES.get(mode), runParams, corpus, warmup);
+            System.out.println(String.join("\t", row));
+            rows.add(row);
+          }
+          continue;
+        }
+        boolean tokenizer = mode.startsWith("tokenizer");
+        boolean parse = mode.endsWith("-parse");
+        for (boolean srParse : srSettings(sr, language, parse)) {
+          for (String profile : profiles) {
+            for (String statsSetting : stats) {
+              Map<String, Object> runParams = new LinkedHashMap<>(params);
+              if (profile != null) {
+                runParams.put("profile", profile.trim());
+              }
+              runParams = statsParams(runParams, statsSetting);
+              String[] row = run(label, language, tokenizer, parse, srParse, runParams, corpus, warmup);
+              System.out.println(String.join("\t", row));
+              rows.add(row);
+            }
+          }
+        }
+      }
+    }
+    PipelineStats.get().setEnabled(true);
+    writeCsv(out + ".csv", rows);
+    writeJson(out + ".json", rows);
+  }
+
+  /**
+   * Switch {@link PipelineStats} on or off for the next configuration, and return its params with the setting
+   * added when it is off. The setting is not a PR parameter, so {@link #run} does not pass it on.
+   */
+  static Map<String, Object> statsParams(Map<String, Object> params, String setting) {
+    boolean enabled = !setting.trim().equals("off");
+    PipelineStats.get().setEnabled(enabled);
+    Map<String, Object> runParams = new LinkedHashMap<>(params);
+    if (!enabled) {
+      runParams.put(STATS, "off");
+    }
+    return runParams;
+  }
+
+  static void initGate() throws Exception {
+    if (!Gate.isInitialised()) {
+      Gate.runInSandbox(true);
+      Gate.init();
+    }
+    BatchRunner.register(CoreNLP.class);
+    BatchRunner.register(CoreTokenizer.class);
+    BatchRunner.register(CoreSentenceSplitter.class);
+    BatchRunner.register(CoreSegmenter.class);
+  }
+
+  static List<Boolean> srSettings(String sr, String language, boolean parse) {
+    // srParse switches to the English SR model, and Spanish always uses its SR model
+    if (!parse || language.equals("spanish") || sr.equals("false")) {
+      return Collections.singletonList(false);
+    }
+    if (sr.equals("true")) {
+      return Collections.singletonList(true);
+    }
+    return Arrays.asList(false, true);
+  }
+
+  /**
+   * Run one configuration over the corpus; the first warmup documents are not measured.
+   */
+  static String[] run(String label, String language, boolean tokenizer, boolean parse, boolean srParse,
+                      Map<String, Object> params, List<String> corpus, int warmup) throws Exception {
+    LanguageAnalyser parser = (LanguageAnalyser) Factory.createResource("ca.concordia.gate.CoreNLP");
+    LanguageAnalyser gateTokenizer = (LanguageAnalyser) Factory.createResource("ca.concordia.gate.CoreTokenizer");
+    parser.setParameterValue("language", language);
+    parser.setParameterValue("includeTokenizer", tokenizer);
+    parser.setParameterValue("includeSentenceSplitter", true);
+    parser.setParameterValue("includeParse", parse);
+    parser.setParameterValue("srParse", srParse);
+    for (Map.Entry<String, Object> param : params.entrySet()) {
+      if (!param.getKey().equals(STATS)) {
+        parser.setParameterValue(param.getKey(), param.getValue());
+      }
+    }
+    gateTokenizer.setParameterValue("language", language);
+
+    LatencyHistogram latencies = new LatencyHistogram();
+    long tokens = 0;
+    long elapsed = 0;
+    System.gc();
+    resetPeakHeap();
+    try {
+      for (int i = 0; i < corpus.size(); i++) {
+        Document document = Factory.newDocument(corpus.get(i));
+        try {
+          if (!tokenizer) {
+            // GATE tokens are an input of this mode, so they are made outside the measurement
+            gateTokenizer.setDocument(document);
+            gateTokenizer.execute();
+          }
+          parser.setDocument(document);
+          long start = System.nanoTime();
+          parser.execute();
+          long time = System.nanoTime() - start;
+          if (i >= warmup) {
+            latencies.record(time);
+            elapsed += time;
+            tokens += document.getAnnotations().get("Token").size();
+          }
+        } finally {
+          Factory.deleteResource(document);
+        }
+      }
+    } finally {
+      Factory.deleteResource(parser);
+      Factory.deleteResource(gateTokenizer);
+    }
+    long measured = corpus.size() - warmup;
+    double seconds = elapsed / 1e9;
+    return new String[]{label, language, String.valueOf(tokenizer), String.valueOf(parse), String.valueOf(srParse),
+            params.toString(), String.valueOf(measured), String.valueOf(tokens), format(seconds),
+            format(measured / seconds), format(tokens / seconds),
+            format(latencies.getP50Millis()), format(latencies.getP95Millis()), format(latencies.getP99Millis()),
+            format(latencies.getMaxMillis()), format(peakHeap() / (1024.0 * 1024.0))};
+  }
+
+  /**
+   * Run the given tokenizing and sentence splitting PRs in turn over the corpus, timing them together; the first
+   * warmup documents are not measured.
+   */
+  static String[] runSegmentation(String label, String language, List<String> prNames, Map<String, Object> params,
+                                  List<String> corpus, int warmup) throws Exception {
+    List<LanguageAnalyser> prs = new ArrayList<>();
+    for (String prName : prNames) {
+      LanguageAnalyser pr = (LanguageAnalyser) Factory.createResource("ca.concordia.gate." + prName);
+      pr.setParameterValue("language", language);
+      prs.add(pr);
+    }
+    LatencyHistogram latencies = new LatencyHistogram();
+    long tokens = 0;
+    long elapsed = 0;
+    System.gc();
+    resetPeakHeap();
+    try {
+      for (int i = 0; i < corpus.size(); i++) {
+        Document document = Factory.newDocument(corpus.get(i));
+        try {
+          long start = System.nanoTime();
+          for (LanguageAnalyser pr : prs) {
+            pr.setDocument(document);
+            pr.execute();
+          }
+          long time = System.nanoTime() - start;
+          if (i >= warmup) {
+            latencies.record(time);
+            elapsed += time;
+            tokens += document.getAnnotations().get("Token").size();
+          }
+        } finally {
+          Factory.deleteResource(document);
+        }
+      }
+    } finally {
+      for (LanguageAnalyser pr : prs) {
+        Factory.deleteResource(pr);
+      }
+    }
+    long measured = corpus.size() - warmup;
+    double seconds = elapsed / 1e9;
+    Map<String, Object> shownParams = new LinkedHashMap<>();
+    shownParams.put("prs", String.join("+", prNames));
+    shownParams.putAll(params);
+    return new String[]{label, language, "true", "false", "false", shownParams.toString(),
+            String.valueOf(measured), String.valueOf(tokens), format(seconds),
+            format(measured / seconds), format(tokens / seconds),
+            format(latencies.getP50Millis()), format(latencies.getP95Millis()), format(latencies.getP99Millis()),
+            format(latencies.getMaxMillis()), format(peakHeap() / (1024.0 * 1024.0))};
+  }
+
+  static void resetPeakHeap() {
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        pool.resetPeakUsage();
+      }
+    }
+  }
+
+  static long peakHeap() {
+    long peak = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP) {
+        peak += pool.getPeakUsage().getUsed();
+      }
+    }
+    return peak;
+  }
+
+  static void writeCsv(String file, List<String[]> rows) throws IOException {
+    writeCsv(file, HEADER, rows);
+  }
+
+  static void writeCsv(String file, String[] header, List<String[]> rows) throws IOException {
+    try (PrintWriter writer = new PrintWriter(new FileWriter(file))) {
+      writer.println(String.join(",", header));
+      for (String[] row : rows) {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < row.length; i++) {
+          if (i > 0) {
+            line.append(',');
+          }
+          line.append('"').append(row[i].replace("\"", "\"\"")).append('"');
+        }
+        writer.println(line);
+      }
+    }
+  }
+
+  static void writeJson(String file, List<String[]> rows) throws IOException {
+    // label, language and params are text, everything else is a flag or a number
+    writeJson(file, HEADER, rows, 0, 1, 5);
+  }
+
+  static void writeJson(String file, String[] header, List<String[]> rows, int... textColumns) throws IOException {
+    Set<Integer> text = new HashSet<>();
+    for (int column : textColumns) {
+      text.add(column);
+    }
+    try (PrintWriter writer = new PrintWriter(new FileWriter(file))) {
+      writer.println("[");
+      for (int r = 0; r < rows.size(); r++) {
+        StringBuilder line = new StringBuilder("  {");
+        for (int i = 0; i < header.length; i++) {
+          if (i > 0) {
+            line.append(", ");
+          }
+          String value = rows.get(r)[i];
+          line.append('"').append(header[i]).append("\": ")
+                  .append(text.contains(i) ? "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"" : value);
+        }
+        line.append(r < rows.size() - 1 ? "}," : "}");
+        writer.println(line);
+      }
+      writer.println("]");
+    }
+  }
+
+  static String format(double value) {
+    return String.format(Locale.ROOT, "%.3f", value);
+  }
+
+  static Object parameterValue(String value) {
+    if (value.equals("true") || value.equals("false")) {
+      return Boolean.valueOf(value);
+    }
+    if (value.matches("-?\\d+")) {
+      return Integer.valueOf(value);
+    }
+    return value;
+  }
+
+  static Map<String, List<String>> parseOptions(String[] args) {
+    Map<String, List<String>> options = new HashMap<>();
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      if (!args[i].startsWith("--")) {
+        throw new IllegalArgumentException("Expected an option, got " + args[i]);
+      }
+      options.computeIfAbsent(args[i].substring(2), k -> new ArrayList<>()).add(args[i + 1]);
+    }
+    return options;
+  }
+
+  static String option(Map<String, List<String>> options, String name, String defaultValue) {
+    List<String> values = options.get(name);
+    return values == null ? defaultValue : values.get(values.size() - 1);
+  }
+
+  static List<String> split(String list) {
+    return Arrays.asList(list.split(","));
+  }
+}
@@ -0,0 +1,79 @@
+package ca.concordia.gate;
+
+import edu.stanford.nlp.ling.CoreAnnotation;
+
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chooses the constituency parser for each sentence: the PCFG parser for short sentences, where it is cheap and
+ * the most accurate, and the shift-reduce parser, whose cost only grows linearly, for long ones.
+ * <p>
+ * The length limit shrinks with the load: once more sentences are queued for or being parsed than the
+ * capacity (by default the number of cores), the limit is scaled down by capacity / waiting, so that under
+ * pressure more sentences go to the cheaper parser. The choice is set on the sentence as a
+ * {@link ParserAnnotation}, "pcfg" or "sr".
+ */
+public class AdaptiveParser {
+    /** Sentences up to this many tokens get the PCFG parser when the parse stage isn't under pressure. */
+    public static final String LENGTH_PROPERTY = "parse.adaptive.length";
+    /** The shift-reduce model for the sentences over the limit. */
+    public static final String MODEL_PROPERTY = "parse.adaptive.model";
+    /** The number of sentences in the parse stage above which the limit shrinks (default the number of cores). */
+    public static final String CAPACITY_PROPERTY = "parse.adaptive.capacity";
+
+    public static final String PCFG = "pcfg";
+    public static final String SR = "sr";
+
+    private final int maxLength;
+    private final int capacity;
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    AdaptiveParser(Properties props) {
+        this.maxLength = Integer.parseInt(props.getProperty(LENGTH_PROPERTY));
+        this.capacity = Integer.parseInt(props.getProperty(CAPACITY_PROPERTY,
+                String.valueOf(Runtime.getRuntime().availableProcessors())));
+    }
+
+    /**
+     * True if the properties ask for the parser to be chosen per sentence.
+     */
+    static boolean isEnabled(Properties props) {
+        return props.getProperty(LENGTH_PROPERTY) != null && props.getProperty(MODEL_PROPERTY) != null;
+    }
+
+    /**
+     * Count sentences queued for the parser, or whose parse ended if negative.
+     */
+    void added(int sentences) {
+        this.waiting.addAndGet(sentences);
+    }
+
+    /**
+     * The parser for a sentence of the given length at the current load, {@link #PCFG} or {@link #SR}.
+     */
+    String choose(int tokens) {
+        return tokens <= getLengthLimit() ? PCFG : SR;
+    }
+
+    /**
+     * The longest sentence that currently gets the PCFG parser.
+     */
+    public int getLengthLimit() {
+        int waiting = this.waiting.get();
+        if (waiting <= this.capacity) {
+            return this.maxLength;
+        }
+        return (int) ((long) this.maxLength * this.capacity / waiting);
+    }
+
+    /**
+     * The parser chosen for a sentence, "pcfg" or "sr".
+     */
+    public static class ParserAnnotation implements CoreAnnotation<String> {
+        @Override
+        public Class<String> getType() {
+            return String.class;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package ca.concordia.gate;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.util.TypesafeMap;
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.Document;
+import gate.event.AnnotationSetEvent;
+import gate.event.AnnotationSetListener;
+import gate.event.DocumentEvent;
+import gate.event.DocumentListener;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * A transient, document-scoped store for the CoreNLP Annotation built by an earlier PR of this plugin.
+ * <p>
+ * CoreTokenizer, CoreSegmenter and CoreSentenceSplitter leave the Annotation they worked on here, so that
+ * the next PR in the chain does not have to rebuild CoreLabels from the GATE "Token" annotations. An entry
+ * is only handed out while the document content has not been edited and no "Token" annotation of the
+ * document's default annotation set has been added, removed or had its features changed since it was
+ * stored; the features are checked against a fingerprint taken when the entry was stored. Entries are held in a weak map keyed by the document, and the
+ * listener used to track changes is transient in GATE, so nothing here is ever serialized with a document.
+ * <p>
+ * The text of the annotation also stays available through {@link #text} until the content is edited, even once
+ * the tokens have changed, so that the PRs of the plugin copy the text of a document out of GATE only once.
+ */
+public class AnnotationHandoff {
+    private static final Map<Document, Entry> entries = Collections.synchronizedMap(new WeakHashMap<>());
+    /** The keys of a label built by {@link #tokenLabel}. */
+    private static final Set<Class<?>> tokenKeys = tokenLabel("", 0, 0).keySet();
+
+    /**
+     * Store the annotation produced for the given document, replacing any previous entry.
+     *
+     * @param gateDocument the GATE document the annotation was built from
+     * @param annotation   the CoreNLP annotation, whose TokensAnnotation mirrors the GATE Token annotations
+     * @param tokenIds     the GATE annotation ID of each Token, keyed by its start offset
+     */
+    public static void put(Document gateDocument, edu.stanford.nlp.pipeline.Annotation annotation,
+                           Map<Long, Integer> tokenIds) {
+        synchronized (entries) {
+            Entry previous = entries.get(gateDocument);
+            TokenWatcher watcher;
+            if (previous != null) {
+                watcher = previous.watcher;
+            } else {
+                watcher = new TokenWatcher();
+                gateDocument.getAnnotations().addAnnotationSetListener(watcher);
+                gateDocument.addDocumentListener(watcher);
+            }
+            entries.put(gateDocument, new Entry(annotation, tokenIds, watcher,
+                    fingerprint(gateDocument.getAnnotations())));
+        }
+    }
+
+    /**
+     * Return the annotation stored for the given document, or null if there is none or the GATE Token
+     * annotations have changed since it was stored.
+     */
+    public static Entry get(Document gateDocument) {
+        synchronized (entries) {
+            Entry entry = entries.get(gateDocument);
+            if (entry == null) {
+                return null;
+            }
+            if (!entry.hasText(gateDocument)) {
+                remove(gateDocument);
+                return null;
+            }
+            if (entry.annotation == null) {
+                return null;
+            }
+            if (entry.stamp != entry.watcher.version
+                    || entry.fingerprint != fingerprint(gateDocument.getAnnotations())) {
+                // the tokens have changed, but the text has not
+                entries.put(gateDocument, new Entry(entry.text, entry.watcher));
+                return null;
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * Return the text of the given document: the text of the stored annotation if the content has not been
+     * edited since, otherwise a new copy of the content.
+     */
+    public static String text(Document gateDocument) {
+        synchronized (entries) {
+            Entry entry = entries.get(gateDocument);
+            if (entry != null && entry.hasText(gateDocument)) {
+                return entry.text;
+            }
+        }
+        return gateDocument.getContent().toString();
+    }
+
+    /**
+     * Drop the entry stored for the given document, if any.
+     */
+    public static void remove(Document gateDocument) {
+        synchronized (entries) {
+            Entry entry = entries.remove(gateDocument);
+            if (entry != null) {
+                gateDocument.getAnnotations().removeAnnotationSetListener(entry.watcher);
+                gateDocument.removeDocumentListener(entry.watcher);
+            }
+        }
+    }
+
+    /**
+     * A hash of the ids, offsets and features of all Token annotations in the set, independent of their order.
+     * GATE has no event for a changed feature, so this is how edits to the tokens by other PRs are noticed.
+     */
+    private static long fingerprint(AnnotationSet annotations) {
+        long fingerprint = 0;
+        for (Annotation token : annotations.get("Token")) {
+            fingerprint += Objects.hash(token.getId(), token.getStartNode().getOffset(),
+                    token.getEndNode().getOffset(), token.getFeatures()) * 0x9E3779B97F4A7C15L;
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Build the CoreLabel that stands for a GATE Token annotation. Every PR converts tokens through here, or
+     * through {@link #reuseTokenLabel}, so a handed-off annotation is identical to one rebuilt from the GATE
+     * annotations.
+     */
+    public static CoreLabel tokenLabel(String tokenString, long startOffset, long endOffset) {
+        CoreLabel tokenLabel = CoreLabel.wordFromString(tokenString);
+        tokenLabel.set(CoreAnnotations.CharacterOffsetBeginAnnotation.class, Math.toIntExact(startOffset));
+        tokenLabel.set(CoreAnnotations.CharacterOffsetEndAnnotation.class, Math.toIntExact(endOffset));
+        tokenLabel.set(CoreAnnotations.TextAnnotation.class, tokenString);
+        tokenLabel.set(CoreAnnotations.IsNewlineAnnotation.class, false);
+        tokenLabel.set(CoreAnnotations.ValueAnnotation.class, tokenString);
+        return tokenLabel;
+    }
+
+    /**
+     * Turn a label made by the CoreNLP tokenizer into the one {@link #tokenLabel} would build for its token,
+     * without allocating a new one, by dropping the keys that a rebuilt label does not have.
+     */
+    public static CoreLabel reuseTokenLabel(CoreLabel token) {
+        for (Class<?> key : new ArrayList<>(token.keySet())) {
+            if (!tokenKeys.contains(key)) {
+                removeKey(token, key);
+            }
+        }
+        token.set(CoreAnnotations.IsNewlineAnnotation.class, false);
+        return token;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <V> void removeKey(CoreLabel token, Class<?> key) {
+        token.remove((Class<? extends TypesafeMap.Key<V>>) key);
+    }
+
+    public static class Entry {
+        private final edu.stanford.nlp.pipeline.Annotation annotation;
+        private final Map<Long, Integer> tokenIds;
+        private final String text;
+        private final TokenWatcher watcher;
+        private final long stamp;
+        private final long contentStamp;
+        private final long fingerprint;
+
+        private Entry(edu.stanford.nlp.pipeline.Annotation annotation, Map<Long, Integer> tokenIds,
+                      TokenWatcher watcher, long fingerprint) {
+            this.annotation = annotation;
+            this.tokenIds = tokenIds;
+            this.text = annotation.get(CoreAnnotations.TextAnnotation.class);
+            this.watcher = watcher;
+            this.stamp = watcher.version;
+            this.contentStamp = watcher.contentVersion;
+            this.fingerprint = fingerprint;
+        }
+
+        /** An entry that only keeps the text, once the tokens it was built from have changed. */
+        private Entry(String text, TokenWatcher watcher) {
+            this.annotation = null;
+            this.tokenIds = null;
+            this.text = text;
+            this.watcher = watcher;
+            this.stamp = watcher.version;
+            this.contentStamp = watcher.contentVersion;
+            this.fingerprint = 0;
+        }
+
+        private boolean hasText(Document gateDocument) {
+            return this.contentStamp == this.watcher.contentVersion
+                    && this.text.length() == gateDocument.getContent().size();
+        }
+
+        public edu.stanford.nlp.pipeline.Annotation getAnnotation() {
+            return this.annotation;
+        }
+
+        public Map<Long, Integer> getTokenIds() {
+            return this.tokenIds;
+        }
+    }
+
+    /**
+     * Bumps a version stamp whenever a Token annotation is added to or removed from the watched set, or the
+     * document content is edited, and a second one for content edits alone. It holds no reference to the
+     * document, so the weak map entry can still be collected.
+     */
+    private static class TokenWatcher implements AnnotationSetListener, DocumentListener {
+        private volatile long version;
+        private volatile long contentVersion;
+
+        @Override
+        public void annotationAdded(AnnotationSetEvent e) {
+            if (e.getAnnotation().getType().equals("Token")) {
+                this.version++;
+            }
+        }
+
+        @Override
+        public void annotationRemoved(AnnotationSetEvent e) {
+            if (e.getAnnotation().getType().equals("Token")) {
+                this.version++;
+            }
+        }
+
+        @Override
+        public void contentEdited(DocumentEvent e) {
+            this.version++;
+            this.contentVersion++;
+        }
+
+        @Override
+        public void annotationSetAdded(DocumentEvent e) {
+        }
+
+        @Override
+        public void annotationSetRemoved(DocumentEvent e) {
+        }
+    }
+}
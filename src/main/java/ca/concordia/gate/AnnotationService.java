@@ -0,0 +1,259 @@
+package ca.concordia.gate;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.pipeline.StanfordCoreNLP;
+import gate.*;
+import gate.creole.ResourceInstantiationException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An HTTP service on localhost that runs the CoreNLP PR's pipeline on the text POSTed to /annotate and answers
+ * with the GATE annotations as JSON, in GATE's JSON document format: the text, and under "entities" the
+ * annotations of each type with their "indices" and features, plus their "id" so that the ids in features such
+ * as "dependencies" and "consists" can be followed.
+ * <p>
+ * Every request is tokenized, split and tagged on its own request thread. Its sentences then go to a
+ * {@link SentenceBatcher}, which collects the sentences of concurrent requests into micro-batches for shared
+ * parse and depparse annotators. Under load this trades up to maxWait milliseconds of latency for parsing many
+ * sentences per annotator call, with a bounded number of sentences parsed at once.
+ * <pre>
+ * java -cp ... ca.concordia.gate.AnnotationService --port 9001 --max-batch 32 --max-wait 10 \
+ *     --param srParse=true
+ * curl --data-binary @doc.txt http://localhost:9001/annotate
+ * </pre>
+ * Options:
+ * <ul>
+ *   <li>--port the port to listen on (default 9001)</li>
+ *   <li>--param name=value a runtime parameter of the CoreNLP PR, e.g. language=spanish; may be repeated</li>
+ *   <li>--request-threads requests handled at the same time (default 16)</li>
+ *   <li>--max-batch the maximum number of sentences in a batch (default 32)</li>
+ *   <li>--max-wait milliseconds a batch waits for more sentences (default 10)</li>
+ *   <li>--parsers batches parsed at the same time (default 1)</li>
+ *   <li>--parse-threads threads the constituency parser spreads a batch over (default the number of cores)</li>
+ * </ul>
+ * GET /stats returns the number of requests, batches and sentences, from which the mean batch size follows.
+ */
+public class AnnotationService {
+
+    private final HttpServer server;
+    private final ExecutorService requestThreads;
+    private final Properties prepareProps;
+    private final SentenceBatcher batcher;
+    private final BlockingQueue<CoreNLP> converters = new LinkedBlockingQueue<>();
+    private final AtomicLong requests = new AtomicLong();
+
+    /**
+     * @param settings       a CoreNLP PR whose language and parser parameters the service uses; it is
+     *                       duplicated to convert the results of concurrent requests
+     * @param port           the port to listen on, 0 for any free one
+     * @param requestThreads the number of requests handled at the same time
+     * @param maxBatch       the maximum number of sentences in a batch
+     * @param maxWaitMillis  how long a batch waits for more sentences
+     * @param parsers        the number of batches parsed at the same time
+     * @param parseThreads   the number of threads the constituency parser spreads a batch over
+     */
+    public AnnotationService(CoreNLP settings, int port, int requestThreads, int maxBatch, int maxWaitMillis,
+                             int parsers, int parseThreads) throws IOException, ResourceInstantiationException {
+        Properties props = settings.coreNlpProperties();
+        this.prepareProps = new Properties();
+        this.prepareProps.putAll(props);
+        this.prepareProps.setProperty("annotators", "tokenize,ssplit,pos");
+        // load the models now rather than on the first request
+        StagedPipeline.get(this.prepareProps).close();
+
+        Properties parseProps = new Properties();
+        for (String name : props.stringPropertyNames()) {
+            // the batches are parsed here, not in parser workers
+            if (!name.startsWith("parserWorkers.")) {
+                parseProps.setProperty(name, props.getProperty(name));
+            }
+        }
+        parseProps.setProperty("annotators", "parse,depparse");
+        parseProps.setProperty("parse.nthreads", String.valueOf(parseThreads));
+        this.batcher = new SentenceBatcher(new StanfordCoreNLP(parseProps, false), maxBatch, maxWaitMillis, parsers);
+
+        for (int i = 0; i < requestThreads; i++) {
+            this.converters.add(i == 0 ? settings : (CoreNLP) Factory.duplicate(settings));
+        }
+        this.requestThreads = Executors.newFixedThreadPool(requestThreads);
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.server.setExecutor(this.requestThreads);
+        this.server.createContext("/annotate", this::annotate);
+        this.server.createContext("/stats", this::stats);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, List<String>> options = new HashMap<>();
+        BatchRunner.parseArgs(args, options);
+        Gate.runInSandbox(true);
+        Gate.init();
+        BatchRunner.register(CoreNLP.class);
+        CoreNLP settings = (CoreNLP) Factory.createResource(CoreNLP.class.getName());
+        for (String param : options.getOrDefault("param", Collections.emptyList())) {
+            String[] nameValue = param.split("=", 2);
+            settings.setParameterValue(nameValue[0], BatchRunner.parameterValue(nameValue[1]));
+        }
+        int cores = Runtime.getRuntime().availableProcessors();
+        AnnotationService service = new AnnotationService(settings,
+                Integer.parseInt(BatchRunner.option(options, "port", "9001")),
+                Integer.parseInt(BatchRunner.option(options, "request-threads", "16")),
+                Integer.parseInt(BatchRunner.option(options, "max-batch", "32")),
+                Integer.parseInt(BatchRunner.option(options, "max-wait", "10")),
+                Integer.parseInt(BatchRunner.option(options, "parsers", "1")),
+                Integer.parseInt(BatchRunner.option(options, "parse-threads", String.valueOf(cores))));
+        service.start();
+        System.out.println("Listening on http://localhost:" + service.getPort() + "/annotate");
+    }
+
+    public void start() {
+        this.server.start();
+    }
+
+    public void stop() {
+        this.server.stop(0);
+        this.requestThreads.shutdown();
+        this.batcher.close();
+    }
+
+    public int getPort() {
+        return this.server.getAddress().getPort();
+    }
+
+    private void annotate(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                respond(exchange, 405, "{\"error\":\"POST the document text\"}");
+                return;
+            }
+            Document document = null;
+            CoreNLP converter = null;
+            try {
+                document = Factory.newDocument(new String(readBody(exchange), StandardCharsets.UTF_8));
+                edu.stanford.nlp.pipeline.Annotation annotation =
+                        new edu.stanford.nlp.pipeline.Annotation(document.getContent().toString());
+                try (StagedPipeline.Lease prepare = StagedPipeline.get(this.prepareProps)) {
+                    prepare.annotate(annotation, document.getName());
+                }
+                this.batcher.annotate(annotation.get(CoreAnnotations.SentencesAnnotation.class));
+                converter = this.converters.take();
+                converter.setDocument(document);
+                converter.addTokenizedAnnotations(annotation);
+                PipelineStats.get().addDocument(document);
+                this.requests.incrementAndGet();
+                respond(exchange, 200, toJson(document));
+            } catch (Exception e) {
+                e.printStackTrace();
+                respond(exchange, 500, "{\"error\":" + CoreNLPServerClient.quote(String.valueOf(e)) + "}");
+            } finally {
+                if (converter != null) {
+                    converter.setDocument(null);
+                    this.converters.add(converter);
+                }
+                if (document != null) {
+                    Factory.deleteResource(document);
+                }
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void stats(HttpExchange exchange) throws IOException {
+        try {
+            respond(exchange, 200, "{\"requests\":" + this.requests.get() + ",\"batches\":"
+                    + this.batcher.getBatches() + ",\"sentences\":" + this.batcher.getSentences() + "}");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+        }
+        return body.toByteArray();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * The document text and its default annotation set in GATE's JSON format.
+     */
+    static String toJson(Document document) {
+        StringBuilder json = new StringBuilder("{\"text\":");
+        json.append(CoreNLPServerClient.quote(document.getContent().toString())).append(",\"entities\":{");
+        AnnotationSet annotations = document.getAnnotations();
+        boolean firstType = true;
+        for (String type : new TreeSet<>(annotations.getAllTypes())) {
+            if (!firstType) {
+                json.append(',');
+            }
+            firstType = false;
+            json.append(CoreNLPServerClient.quote(type)).append(":[");
+            boolean first = true;
+            for (Annotation annotation : Utils.inDocumentOrder(annotations.get(type))) {
+                if (!first) {
+                    json.append(',');
+                }
+                first = false;
+                json.append("{\"id\":").append(annotation.getId())
+                        .append(",\"indices\":[").append(annotation.getStartNode().getOffset())
+                        .append(',').append(annotation.getEndNode().getOffset()).append(']');
+                for (Map.Entry<Object, Object> feature : annotation.getFeatures().entrySet()) {
+                    json.append(',').append(CoreNLPServerClient.quote(String.valueOf(feature.getKey()))).append(':');
+                    appendValue(json, feature.getValue());
+                }
+                json.append('}');
+            }
+            json.append(']');
+        }
+        return json.append("}}").toString();
+    }
+
+    private static void appendValue(StringBuilder json, Object value) {
+        if (value == null || value instanceof Number || value instanceof Boolean) {
+            json.append(value);
+        } else if (value instanceof Collection) {
+            json.append('[');
+            boolean first = true;
+            for (Object element : (Collection<?>) value) {
+                if (!first) {
+                    json.append(',');
+                }
+                first = false;
+                appendValue(json, element);
+            }
+            json.append(']');
+        } else if (value instanceof DependencyRelation) {
+            DependencyRelation relation = (DependencyRelation) value;
+            json.append("{\"type\":").append(CoreNLPServerClient.quote(relation.getType()))
+                    .append(",\"targetId\":").append(relation.getTargetId()).append('}');
+        } else {
+            json.append(CoreNLPServerClient.quote(value.toString()));
+        }
+    }
+}
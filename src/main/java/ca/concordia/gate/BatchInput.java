@@ -0,0 +1,221 @@
+package ca.concordia.gate;
+
+import gate.Document;
+import gate.Factory;
+import gate.FeatureMap;
+import gate.creole.ResourceInstantiationException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * The input documents of a {@link BatchRunner}: every regular file under a directory, or every file entry of a
+ * zip archive.
+ * <p>
+ * Items are listed lazily, so a directory of millions of files is never held in memory at once, and each item
+ * is only read when its document is loaded. Items are named by their path relative to the input root.
+ */
+public abstract class BatchInput implements Closeable, Iterable<BatchInput.Item> {
+
+    protected final String encoding;
+    protected final String mimeType;
+
+    protected BatchInput(String encoding, String mimeType) {
+        this.encoding = encoding;
+        this.mimeType = mimeType;
+    }
+
+    /**
+     * Open a directory or a .zip file.
+     *
+     * @param encoding the encoding of the documents
+     * @param mimeType the MIME type of the documents, or null to let GATE guess it from the file name
+     */
+    public static BatchInput open(File input, String encoding, String mimeType) throws IOException {
+        if (input.isDirectory()) {
+            return new DirectoryInput(input.toPath(), encoding, mimeType);
+        }
+        if (input.getName().toLowerCase().endsWith(".zip")) {
+            return new ZipInput(new ZipFile(input), encoding, mimeType);
+        }
+        throw new IOException("Input must be a directory or a .zip file: " + input);
+    }
+
+    /**
+     * The item of the given name, for processing a list of names someone else took from the input.
+     */
+    public abstract Item get(String name) throws IOException;
+
+    /**
+     * One input document.
+     */
+    public interface Item {
+        /** The path of the document relative to the input root, with '/' separators. */
+        String getName();
+
+        /** Read the document into a new GATE document, which the caller has to delete. */
+        Document load() throws IOException, ResourceInstantiationException;
+    }
+
+    private static class DirectoryInput extends BatchInput {
+        private final Path root;
+        private final Stream<Path> files;
+
+        DirectoryInput(Path root, String encoding, String mimeType) throws IOException {
+            super(encoding, mimeType);
+            this.root = root;
+            this.files = Files.walk(root).filter(Files::isRegularFile);
+        }
+
+        @Override
+        public Iterator<Item> iterator() {
+            Iterator<Path> paths = this.files.iterator();
+            return new Iterator<Item>() {
+                public boolean hasNext() {
+                    return paths.hasNext();
+                }
+
+                public Item next() {
+                    return item(paths.next());
+                }
+            };
+        }
+
+        @Override
+        public Item get(String name) throws IOException {
+            Path path = this.root.resolve(name);
+            if (!Files.isRegularFile(path)) {
+                throw new IOException("No such input file: " + path);
+            }
+            return item(path);
+        }
+
+        private Item item(Path path) {
+            String name = this.root.relativize(path).toString().replace(File.separatorChar, '/');
+            return new Item() {
+                public String getName() {
+                    return name;
+                }
+
+                public Document load() throws IOException, ResourceInstantiationException {
+                    FeatureMap params = Factory.newFeatureMap();
+                    params.put(Document.DOCUMENT_URL_PARAMETER_NAME, path.toUri().toURL());
+                    params.put(Document.DOCUMENT_ENCODING_PARAMETER_NAME, encoding);
+                    if (mimeType != null) {
+                        params.put(Document.DOCUMENT_MIME_TYPE_PARAMETER_NAME, mimeType);
+                    }
+                    return (Document) Factory.createResource("gate.corpora.DocumentImpl", params,
+                            Factory.newFeatureMap(), name);
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+            this.files.close();
+        }
+    }
+
+    private static class ZipInput extends BatchInput {
+        private final ZipFile zip;
+
+        ZipInput(ZipFile zip, String encoding, String mimeType) {
+            super(encoding, mimeType);
+            this.zip = zip;
+        }
+
+        @Override
+        public Iterator<Item> iterator() {
+            Enumeration<? extends ZipEntry> entries = this.zip.entries();
+            return new Iterator<Item>() {
+                private ZipEntry nextEntry = advance();
+
+                private ZipEntry advance() {
+                    while (entries.hasMoreElements()) {
+                        ZipEntry entry = entries.nextElement();
+                        if (!entry.isDirectory()) {
+                            return entry;
+                        }
+                    }
+                    return null;
+                }
+
+                public boolean hasNext() {
+                    return this.nextEntry != null;
+                }
+
+                public Item next() {
+                    if (this.nextEntry == null) {
+                        throw new NoSuchElementException();
+                    }
+                    ZipEntry entry = this.nextEntry;
+                    this.nextEntry = advance();
+                    return item(entry);
+                }
+            };
+        }
+
+        @Override
+        public Item get(String name) throws IOException {
+            ZipEntry entry = this.zip.getEntry(name);
+            if (entry == null || entry.isDirectory()) {
+                throw new IOException("No such zip entry: " + name);
+            }
+            return item(entry);
+        }
+
+        private Item item(ZipEntry entry) {
+            return new Item() {
+                public String getName() {
+                    return entry.getName();
+                }
+
+                public Document load() throws IOException, ResourceInstantiationException {
+                    // ZipFile can be read from several threads, so entries are read where they are processed
+                    ByteArrayOutputStream content = new ByteArrayOutputStream();
+                    try (InputStream in = zip.getInputStream(entry)) {
+                        byte[] buffer = new byte[8192];
+                        int read;
+                        while ((read = in.read(buffer)) > 0) {
+                            content.write(buffer, 0, read);
+                        }
+                    }
+                    FeatureMap params = Factory.newFeatureMap();
+                    params.put(Document.DOCUMENT_STRING_CONTENT_PARAMETER_NAME, content.toString(encoding));
+                    params.put(Document.DOCUMENT_MIME_TYPE_PARAMETER_NAME,
+                            mimeType != null ? mimeType : guessMimeType(entry.getName()));
+                    return (Document) Factory.createResource("gate.corpora.DocumentImpl", params,
+                            Factory.newFeatureMap(), entry.getName());
+                }
+            };
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.zip.close();
+        }
+    }
+
+    /** GATE only guesses the format of documents it reads from a URL, so zip entries go by their extension. */
+    static String guessMimeType(String name) {
+        String lower = name.toLowerCase();
+        if (lower.endsWith(".xml")) {
+            return "text/xml";
+        }
+        if (lower.endsWith(".html") || lower.endsWith(".htm")) {
+            return "text/html";
+        }
+        return "text/plain";
+    }
+}
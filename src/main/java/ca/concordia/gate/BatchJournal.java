@@ -0,0 +1,216 @@
+package ca.concordia.gate;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A durable record of the documents a {@link BatchRunner} has finished, so a run that dies can be restarted
+ * without redoing them.
+ * <p>
+ * The journal is an append-only file with one "name TAB output" line per document whose output has been
+ * written. Opening an existing journal loads the finished names; documents that were in flight when the run
+ * died have no line, so they are processed again. Completions are queued and written by a background thread
+ * in batches, each followed by a single fsync, so the journal costs one disk sync per batch rather than per
+ * document. A line torn by a crash is ignored when the journal is read back.
+ */
+public class BatchJournal implements Closeable {
+
+    static final int BATCH_SIZE = 512;
+    static final long FLUSH_MILLIS = 1000;
+
+    private final File file;
+    private final Set<String> finished = ConcurrentHashMap.newKeySet();
+    private final BlockingQueue<String> pending = new LinkedBlockingQueue<>();
+    private final FileOutputStream out;
+    private final Writer writer;
+    private final Thread flusher;
+    private volatile boolean closed;
+    private IOException writeError;
+
+    /**
+     * Open the journal, loading the documents finished by earlier runs, and start appending to it.
+     */
+    public BatchJournal(File file) throws IOException {
+        this.file = file;
+        if (file.exists()) {
+            load();
+        } else if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        this.out = new FileOutputStream(file, true);
+        this.writer = new BufferedWriter(new OutputStreamWriter(this.out, StandardCharsets.UTF_8));
+        this.flusher = new Thread(this::flushLoop, "batch-journal");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    private void load() throws IOException {
+        truncateTornLine();
+        readFinished(this.file, this.finished);
+    }
+
+    /**
+     * Add the names of the documents finished in a journal to the given set, without opening it for writing.
+     * A torn last line is skipped.
+     */
+    public static void readFinished(File file, Set<String> names) throws IOException {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            String previous = null;
+            while ((line = reader.readLine()) != null) {
+                if (previous != null) {
+                    addName(previous, names);
+                }
+                previous = line;
+            }
+            // the last line only counts if it was terminated, which readLine does not tell
+            if (previous != null && endsWithNewline(file)) {
+                addName(previous, names);
+            }
+        }
+    }
+
+    private static void addName(String line, Set<String> names) {
+        int tab = line.indexOf('\t');
+        if (tab > 0) {
+            names.add(line.substring(0, tab));
+        }
+    }
+
+    private static boolean endsWithNewline(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.length() == 0) {
+                return false;
+            }
+            raf.seek(raf.length() - 1);
+            return raf.read() == '\n';
+        }
+    }
+
+    /**
+     * Only complete lines count: cut off a partial last line, which is what a crash mid-write leaves behind,
+     * so that new lines start on a line of their own.
+     */
+    private void truncateTornLine() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(this.file, "rw")) {
+            long end = raf.length();
+            while (end > 0) {
+                raf.seek(end - 1);
+                if (raf.read() == '\n') {
+                    break;
+                }
+                end--;
+            }
+            if (end < raf.length()) {
+                raf.setLength(end);
+            }
+        }
+    }
+
+    /**
+     * True if an earlier run, or this one, finished the document.
+     */
+    public boolean isFinished(String name) {
+        return this.finished.contains(name);
+    }
+
+    /**
+     * The number of finished documents, including those of earlier runs.
+     */
+    public int getFinishedCount() {
+        return this.finished.size();
+    }
+
+    /**
+     * Record that the document's output has been written. The record is durable after the next batch is
+     * flushed, at most about twice {@link #FLUSH_MILLIS} later.
+     */
+    public void finished(String name, String output) throws IOException {
+        synchronized (this) {
+            if (this.writeError != null) {
+                throw this.writeError;
+            }
+        }
+        this.finished.add(name);
+        this.pending.add(escape(name) + "\t" + escape(output) + "\n");
+    }
+
+    private static String escape(String value) {
+        return value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    private void flushLoop() {
+        List<String> batch = new ArrayList<>(BATCH_SIZE);
+        while (!this.closed || !this.pending.isEmpty()) {
+            try {
+                collect(batch);
+            } catch (InterruptedException e) {
+                // close() wakes the thread up so that what is left is written straight away
+            }
+            if (!batch.isEmpty()) {
+                try {
+                    write(batch);
+                } catch (IOException e) {
+                    synchronized (this) {
+                        this.writeError = e;
+                    }
+                    e.printStackTrace();
+                    return;
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Wait for a record, then gather more until the batch is full or {@link #FLUSH_MILLIS} have passed.
+     */
+    private void collect(List<String> batch) throws InterruptedException {
+        String first = this.pending.poll(FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FLUSH_MILLIS);
+        while (batch.size() < BATCH_SIZE && !this.closed) {
+            String next = this.pending.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+            this.pending.drainTo(batch, BATCH_SIZE - batch.size());
+        }
+        this.pending.drainTo(batch, BATCH_SIZE - batch.size());
+    }
+
+    private void write(List<String> batch) throws IOException {
+        for (String line : batch) {
+            this.writer.write(line);
+        }
+        this.writer.flush();
+        this.out.getFD().sync();
+    }
+
+    /**
+     * Write out every pending record and close the file.
+     */
+    @Override
+    public void close() throws IOException {
+        this.closed = true;
+        this.flusher.interrupt();
+        try {
+            this.flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.writer.close();
+        synchronized (this) {
+            if (this.writeError != null) {
+                throw this.writeError;
+            }
+        }
+    }
+}
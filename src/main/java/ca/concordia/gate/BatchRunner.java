@@ -0,0 +1,420 @@
+package ca.concordia.gate;
+
+import gate.*;
+import gate.creole.Plugin;
+import gate.creole.ResourceData;
+import gate.creole.ResourceInstantiationException;
+import gate.creole.SerialAnalyserController;
+import gate.util.GateException;
+import gate.util.persistence.PersistenceManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a pipeline of this plugin's PRs over a directory or zip archive of documents, without the GUI, and writes
+ * every processed document as GATE XML.
+ * <p>
+ * Each document is handled by its own task, which loads it, has it processed and writes the result. Those tasks
+ * mostly block on disk I/O, so on Java 21 and later they run on virtual threads, and on a cached thread pool
+ * before that. The processing itself is handed to a fixed pool of platform threads, one per duplicate of the
+ * pipeline, which only ever runs CPU-bound work, so the cores keep parsing however slow the disk is. The number
+ * of documents that are loaded, processed or being written at any time is bounded, so memory stays flat however
+ * large the input is. Progress and throughput are printed at a fixed interval.
+ * <pre>
+ * java -cp ... ca.concordia.gate.BatchRunner [options] &lt;input-dir-or-zip&gt; &lt;output-dir&gt;
+ * </pre>
+ * Options:
+ * <ul>
+ *   <li>--prs comma separated PR classes, short names for this plugin's PRs
+ *       (default CoreNLP,DependencyNodeGenerator)</li>
+ *   <li>--gapp a saved GATE application to run instead of --prs</li>
+ *   <li>--param [PR.]name=value a PR runtime parameter, e.g. CoreNLP.srParse=true; without a PR name it is set
+ *       on every PR that has it. May be repeated</li>
+ *   <li>--threads duplicated pipelines (default the number of cores)</li>
+ *   <li>--in-flight maximum documents in memory (default 4 per thread)</li>
+ *   <li>--encoding input encoding (default UTF-8), --mime-type input MIME type (default guessed)</li>
+ *   <li>--progress seconds between progress reports (default 10)</li>
+ *   <li>--journal the progress journal (default output-dir/batch-journal.tsv), or none</li>
+ * </ul>
+ * Each input file name.ext is written to output-dir/name.ext.xml, keeping its relative path. Finished documents
+ * are recorded in a {@link BatchJournal}, so running the same command again after a crash skips them and
+ * processes only the documents that were not written yet.
+ */
+public class BatchRunner {
+
+    private final List<CorpusController> pipelines;
+    private final int maxInFlight;
+    private final int progressSeconds;
+
+    private BatchJournal journal;
+    private long started;
+
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong characters = new AtomicLong();
+
+    /**
+     * @param pipeline        the application to run; it is duplicated until there is one per thread
+     * @param threads         the number of documents processed at the same time
+     * @param maxInFlight     the maximum number of documents in memory, at least threads
+     * @param progressSeconds seconds between progress reports, 0 for none
+     */
+    public BatchRunner(CorpusController pipeline, int threads, int maxInFlight, int progressSeconds)
+            throws ResourceInstantiationException {
+        this.pipelines = new ArrayList<>();
+        this.pipelines.add(pipeline);
+        for (int i = 1; i < threads; i++) {
+            this.pipelines.add((CorpusController) Factory.duplicate(pipeline));
+        }
+        for (int i = 0; i < this.pipelines.size(); i++) {
+            this.pipelines.get(i).setCorpus(Factory.newCorpus("batch" + i));
+        }
+        this.maxInFlight = Math.max(maxInFlight, threads);
+        this.progressSeconds = progressSeconds;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, List<String>> options = new HashMap<>();
+        List<String> paths = parseArgs(args, options);
+        if (paths.size() != 2) {
+            System.err.println("Usage: BatchRunner [options] <input-dir-or-zip> <output-dir>");
+            System.exit(1);
+        }
+        BatchRunner runner = create(options);
+        File outputDir = new File(paths.get(1));
+        String journalFile = option(options, "journal", new File(outputDir, "batch-journal.tsv").getPath());
+        try (BatchInput input = openInput(new File(paths.get(0)), options);
+             BatchJournal journal = journalFile.equals("none") ? null : new BatchJournal(new File(journalFile))) {
+            runner.setJournal(journal);
+            runner.run(input, outputDir);
+        } finally {
+            runner.cleanup();
+        }
+        System.exit(runner.getFailed() > 0 ? 2 : 0);
+    }
+
+    /**
+     * Split the command line into --name value options and the remaining positional arguments, which are returned.
+     */
+    static List<String> parseArgs(String[] args, Map<String, List<String>> options) {
+        List<String> positional = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].startsWith("--") && i + 1 < args.length) {
+                options.computeIfAbsent(args[i].substring(2), k -> new ArrayList<>()).add(args[++i]);
+            } else {
+                positional.add(args[i]);
+            }
+        }
+        return positional;
+    }
+
+    /**
+     * Initialise GATE, and build a runner for the pipeline and settings given by the command line options.
+     */
+    static BatchRunner create(Map<String, List<String>> options) throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int threads = Integer.parseInt(option(options, "threads", String.valueOf(cores)));
+        return new BatchRunner(createPipeline(options), threads,
+                Integer.parseInt(option(options, "in-flight", String.valueOf(4 * threads))),
+                Integer.parseInt(option(options, "progress", "10")));
+    }
+
+    /**
+     * Initialise GATE, and build the application given by the --gapp or --prs and --param options.
+     */
+    static CorpusController createPipeline(Map<String, List<String>> options) throws Exception {
+        Gate.runInSandbox(true);
+        Gate.init();
+        for (Class<? extends Resource> pr : Arrays.asList(CoreTokenizer.class, CoreSentenceSplitter.class,
+                CoreSegmenter.class, CoreNLP.class, DependencyNodeGenerator.class)) {
+            register(pr);
+        }
+        CorpusController pipeline = options.containsKey("gapp")
+                ? (CorpusController) PersistenceManager.loadObjectFromFile(new File(option(options, "gapp", null)))
+                : pipeline(split(option(options, "prs", "CoreNLP,DependencyNodeGenerator")));
+        setParameters(pipeline, options.getOrDefault("param", Collections.emptyList()));
+        return pipeline;
+    }
+
+    /**
+     * Register one PR class of the plugin. GATE gives every Plugin.Component the same base URI, so it would take
+     * all but the first class registered that way for the plugin it already has; each one is told apart here by
+     * its class.
+     */
+    static void register(Class<? extends Resource> type) throws GateException, MalformedURLException {
+        Gate.getCreoleRegister().registerPlugin(new PrComponent(type));
+    }
+
+    private static class PrComponent extends Plugin.Component {
+        private final Class<? extends Resource> type;
+
+        private PrComponent(Class<? extends Resource> type) throws MalformedURLException {
+            super(type);
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof PrComponent && ((PrComponent) other).type == this.type;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.type.hashCode();
+        }
+    }
+
+    static BatchInput openInput(File input, Map<String, List<String>> options) throws IOException {
+        return BatchInput.open(input, option(options, "encoding", "UTF-8"), option(options, "mime-type", null));
+    }
+
+    /**
+     * A serial application of the given PRs, created with their default parameters.
+     */
+    public static CorpusController pipeline(List<String> prs) throws ResourceInstantiationException {
+        SerialAnalyserController controller =
+                (SerialAnalyserController) Factory.createResource("gate.creole.SerialAnalyserController");
+        for (String pr : prs) {
+            String className = pr.contains(".") ? pr : "ca.concordia.gate." + pr;
+            controller.add((ProcessingResource) Factory.createResource(className));
+        }
+        return controller;
+    }
+
+    /**
+     * Set [PR.]name=value runtime parameters on the PRs of the application; a PR is matched by its class's
+     * short name or its resource name.
+     */
+    public static void setParameters(CorpusController pipeline, List<String> params)
+            throws ResourceInstantiationException {
+        for (String param : params) {
+            String[] nameValue = param.split("=", 2);
+            int dot = nameValue[0].lastIndexOf('.');
+            String prName = dot < 0 ? null : nameValue[0].substring(0, dot);
+            String name = nameValue[0].substring(dot + 1);
+            boolean set = false;
+            for (ProcessingResource pr : pipeline.getPRs()) {
+                boolean named = pr.getClass().getSimpleName().equals(prName) || pr.getName().equals(prName);
+                if ((prName == null || named) && hasParameter(pr, name)) {
+                    pr.setParameterValue(name, parameterValue(nameValue[1]));
+                    set = true;
+                }
+            }
+            if (!set) {
+                throw new ResourceInstantiationException("No PR in the pipeline has the parameter " + nameValue[0]);
+            }
+        }
+    }
+
+    private static boolean hasParameter(ProcessingResource pr, String name) {
+        ResourceData data = Gate.getCreoleRegister().get(pr.getClass().getName());
+        if (data == null) {
+            return false;
+        }
+        for (List<gate.creole.Parameter> disjunction : data.getParameterList().getRuntimeParameters()) {
+            for (gate.creole.Parameter parameter : disjunction) {
+                if (parameter.getName().equals(name)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    static Object parameterValue(String value) {
+        if (value.equals("true") || value.equals("false")) {
+            return Boolean.valueOf(value);
+        }
+        if (value.matches("-?\\d+")) {
+            return Integer.valueOf(value);
+        }
+        return value;
+    }
+
+    /**
+     * Record finished documents in the journal, and skip those it already holds; null for no journal.
+     */
+    public void setJournal(BatchJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Process every document of the input and write the results under the output directory. A runner can run
+     * several inputs one after the other; its counters and rates cover all of them.
+     */
+    public void run(Iterable<BatchInput.Item> input, File outputDir) throws InterruptedException {
+        BlockingQueue<CorpusController> idle = new LinkedBlockingQueue<>(this.pipelines);
+        ExecutorService documents = documentExecutor();
+        ExecutorService parsers = Executors.newFixedThreadPool(this.pipelines.size(), threadFactory("batch-parse"));
+        Semaphore inFlight = new Semaphore(this.maxInFlight);
+        ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor(threadFactory("batch-progress"));
+        if (this.started == 0) {
+            this.started = System.nanoTime();
+        }
+        long start = this.started;
+        if (this.progressSeconds > 0) {
+            progress.scheduleAtFixedRate(() -> report(start, inFlight),
+                    this.progressSeconds, this.progressSeconds, TimeUnit.SECONDS);
+        }
+        try {
+            for (BatchInput.Item item : input) {
+                if (this.journal != null && this.journal.isFinished(item.getName())) {
+                    this.skipped.incrementAndGet();
+                    continue;
+                }
+                // the permit is held until the document is written, so loading stops while parsing lags behind
+                inFlight.acquire();
+                documents.execute(() -> process(item, idle, parsers, inFlight, outputDir));
+            }
+            // every permit back means every document is processed and written
+            inFlight.acquire(this.maxInFlight);
+            inFlight.release(this.maxInFlight);
+        } finally {
+            documents.shutdown();
+            parsers.shutdown();
+            progress.shutdownNow();
+            documents.awaitTermination(1, TimeUnit.MINUTES);
+            parsers.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        report(start, inFlight);
+    }
+
+    /**
+     * The executor for the per-document tasks: a virtual thread per task where the JVM has them, looked up
+     * reflectively so that the plugin still runs on Java 8, and a cached pool of daemon threads otherwise.
+     */
+    static ExecutorService documentExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(threadFactory("batch-document"));
+        }
+    }
+
+    static ThreadFactory threadFactory(String name) {
+        AtomicLong count = new AtomicLong();
+        return r -> {
+            Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private void process(BatchInput.Item item, BlockingQueue<CorpusController> idle, ExecutorService parsers,
+                         Semaphore inFlight, File outputDir) {
+        Document document = null;
+        try {
+            document = item.load();
+            Document loaded = document;
+            // there are as many parser threads as pipelines, so a parser thread never waits for one
+            parsers.submit(() -> {
+                CorpusController pipeline = idle.take();
+                Corpus corpus = pipeline.getCorpus();
+                try {
+                    corpus.add(loaded);
+                    pipeline.execute();
+                } finally {
+                    corpus.clear();
+                    idle.add(pipeline);
+                }
+                return null;
+            }).get();
+        } catch (Exception e) {
+            this.failed.incrementAndGet();
+            System.err.println("Failed to process " + item.getName());
+            e.printStackTrace();
+            if (document != null) {
+                Factory.deleteResource(document);
+            }
+            inFlight.release();
+            return;
+        }
+        write(item, document, inFlight, outputDir);
+    }
+
+    private void write(BatchInput.Item item, Document document, Semaphore inFlight, File outputDir) {
+        try {
+            Path output = writeXml(document, outputDir, item.getName());
+            if (this.journal != null) {
+                this.journal.finished(item.getName(), output.toString());
+            }
+            this.characters.addAndGet(document.getContent().size());
+            this.processed.incrementAndGet();
+        } catch (IOException e) {
+            this.failed.incrementAndGet();
+            System.err.println("Failed to write " + item.getName());
+            e.printStackTrace();
+        } finally {
+            Factory.deleteResource(document);
+            inFlight.release();
+        }
+    }
+
+    /**
+     * Write the document as GATE XML to output-dir/name.xml and return that path. A name that would
+     * take the output outside output-dir, such as an archive entry with "../" in it, is an IOException.
+     */
+    static Path writeXml(Document document, File outputDir, String name) throws IOException {
+        Path root = outputDir.toPath().toAbsolutePath().normalize();
+        Path output = root.resolve(name + ".xml").normalize();
+        if (!output.startsWith(root) || output.equals(root)) {
+            throw new IOException("Output for " + name + " would be outside " + root);
+        }
+        Files.createDirectories(output.getParent());
+        // written under a temporary name first, so a crash never leaves a truncated output behind
+        Path partial = output.resolveSibling(output.getFileName() + ".part");
+        Files.write(partial, document.toXml().getBytes(StandardCharsets.UTF_8));
+        Files.move(partial, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return output;
+    }
+
+    private void report(long start, Semaphore inFlight) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.println(String.format(Locale.ROOT,
+                "%d documents, %d failed, %d skipped, %d in flight, %.1f docs/sec, %.0f chars/sec, %.0fs elapsed",
+                this.processed.get(), this.failed.get(), this.skipped.get(),
+                this.maxInFlight - inFlight.availablePermits(),
+                this.processed.get() / seconds, this.characters.get() / seconds, seconds));
+    }
+
+    public long getProcessed() {
+        return this.processed.get();
+    }
+
+    public long getFailed() {
+        return this.failed.get();
+    }
+
+    public long getSkipped() {
+        return this.skipped.get();
+    }
+
+    /**
+     * Delete the pipelines, including the one passed to the constructor.
+     */
+    public void cleanup() {
+        for (CorpusController pipeline : this.pipelines) {
+            Factory.deleteResource(pipeline.getCorpus());
+            Factory.deleteResource(pipeline);
+        }
+    }
+
+    static String option(Map<String, List<String>> options, String name, String defaultValue) {
+        List<String> values = options.get(name);
+        return values == null ? defaultValue : values.get(values.size() - 1);
+    }
+
+    static List<String> split(String list) {
+        return Arrays.asList(list.split(","));
+    }
+}
@@ -0,0 +1,83 @@
+package ca.concordia.gate;
+
+import javax.management.ObjectName;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One stage of a {@link StagedBatchRunner}: a bounded queue of documents waiting for the stage and the counters
+ * of the threads working on it, registered as {@code ca.concordia.gate:type=BatchStage,name=<name>}.
+ * <p>
+ * A queue that stays full points at a stage that needs more threads; a stage whose queue stays empty while
+ * the one before it is full has threads to spare.
+ */
+public class BatchStage implements BatchStageMBean {
+    private final String name;
+    private final int threads;
+    private final BlockingQueue<StagedBatchRunner.Job> queue;
+    private final AtomicInteger busy = new AtomicInteger();
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder busyNanos = new LongAdder();
+
+    public BatchStage(String name, int threads, int queueCapacity) {
+        this.name = name;
+        this.threads = threads;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        PipelineStats.register("ca.concordia.gate:type=BatchStage,name=" + ObjectName.quote(name), this);
+    }
+
+    BlockingQueue<StagedBatchRunner.Job> queue() {
+        return this.queue;
+    }
+
+    /**
+     * Mark a thread as working on a document, returning the start time to pass to {@link #finished}.
+     */
+    long started() {
+        this.busy.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    void finished(long startNanos) {
+        this.busyNanos.add(System.nanoTime() - startNanos);
+        this.processed.increment();
+        this.busy.decrementAndGet();
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    @Override
+    public int getThreads() {
+        return this.threads;
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return this.queue.size();
+    }
+
+    @Override
+    public int getQueueCapacity() {
+        return this.queue.size() + this.queue.remainingCapacity();
+    }
+
+    @Override
+    public int getBusyThreads() {
+        return this.busy.get();
+    }
+
+    @Override
+    public long getProcessed() {
+        return this.processed.sum();
+    }
+
+    @Override
+    public double getBusyMillis() {
+        return this.busyNanos.sum() / 1e6;
+    }
+}
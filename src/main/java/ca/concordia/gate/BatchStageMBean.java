@@ -0,0 +1,20 @@
+package ca.concordia.gate;
+
+/**
+ * JMX view of a {@link BatchStage}, to see which stage of a {@link StagedBatchRunner} is the bottleneck.
+ */
+public interface BatchStageMBean {
+    String getName();
+
+    int getThreads();
+
+    int getQueueDepth();
+
+    int getQueueCapacity();
+
+    int getBusyThreads();
+
+    long getProcessed();
+
+    double getBusyMillis();
+}
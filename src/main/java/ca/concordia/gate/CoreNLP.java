@@ -23,7 +23,11 @@ import gate.creole.metadata.RunTime;
 import gate.util.GateRuntimeException;
 import gate.util.InvalidOffsetException;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -33,14 +37,48 @@ import java.util.stream.Collectors;
 public class CoreNLP extends AbstractLanguageAnalyser implements ProcessingResource {
     private Boolean useEnhanced;
     private Boolean srParse;
+    private Boolean adaptiveParse;
+    private Integer adaptiveParseLength;
     private Boolean includeTokenizer;
     private Boolean includeSentenceSplitter;
     private Boolean includeParse;
 
     private String language;
+    private String profile;
+    private String languages;
+    private String languageFeature;
+    private Integer pipelineIdleMinutes;
+    private String profileOverrides;
+    private String slowSentenceLog;
+    private Integer slowSentenceThreshold;
+    private Integer parserWorkers;
+    private String parserWorkerHeap;
+    private Integer parserWorkerTimeout;
+    private String serverUrl;
+    private Integer serverRequests;
+    private Integer serverBatchChars;
+    private Integer serverBatchWait;
+    private Integer serverConnectTimeout;
+    private Integer serverReadTimeout;
+    private Integer sentenceThreads;
+    private String sentenceSchedule;
 
+    /** The cache keys of the pipelines this PR has used, with the generation it last used. */
+    private final Map<String, Long> pipelineGenerations = new ConcurrentHashMap<>();
+
+    /**
+     * Reload the models of the pipelines this PR has used without stopping the documents being processed on other
+     * threads, and record in {@link PipelineStats} how long the swap took and how much memory the old and new
+     * models held together. Duplicates of this PR share its pipelines, which are reloaded only once.
+     */
     @Override
     public void reInit() throws ResourceInstantiationException {
+        try {
+            PipelineStats.get().recordReload(StagedPipeline.reload(this.pipelineGenerations));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResourceInstantiationException(e);
+        }
         init();
     }
 
@@ -54,24 +92,26 @@ public class CoreNLP extends AbstractLanguageAnalyser implements ProcessingResou
 
     public void execute() throws ExecutionException {
         if (this.document == null) throw new GateRuntimeException("No document to process!");
-        System.out.println("document name:" + this.document.getName());
-        System.out.println("document size" + this.document.getContent().size());
-        System.out.println("Language:" + this.language);
-        Properties coreNlpProps = new Properties();
-        if (language.equals("spanish")) {
-            coreNlpProps.setProperty("tokenize.language","es");
-            coreNlpProps.setProperty("pos.model","edu/stanford/nlp/models/pos-tagger/spanish-ud.tagger");
-            coreNlpProps.setProperty("ner.model","edu/stanford/nlp/models/ner/spanish.ancora.distsim.s512.crf.ser.gz");
-            coreNlpProps.setProperty("ner.applyNumericClassifiers","true");
-            coreNlpProps.setProperty("ner.useSUTime","true");
-            coreNlpProps.setProperty("ner.language","es");
-            coreNlpProps.setProperty("sutime.language","spanish");
-            coreNlpProps.setProperty("parse.model","edu/stanford/nlp/models/srparser/spanishSR.beam.ser.gz");
-            coreNlpProps.setProperty("depparse.model","edu/stanford/nlp/models/parser/nndep/UD_Spanish.gz");
-            coreNlpProps.setProperty("depparse.language", "spanish");
-        }
-        if (srParse) {
-            coreNlpProps.setProperty("parse.model", "edu/stanford/nlp/models/srparser/englishSR.beam.ser.gz");
+        DocumentAnnotateEvent event = DocumentAnnotateEvent.begin(this, this.document);
+        try {
+            annotateDocument();
+            event.succeeded();
+        } finally {
+            event.finish();
+        }
+    }
+
+    private void annotateDocument() throws ExecutionException {
+        PipelineStats.get().addDocument(this.document);
+        if (this.pipelineIdleMinutes != null && this.pipelineIdleMinutes > 0) {
+            StagedPipeline.evictIdle(TimeUnit.MINUTES.toMillis(this.pipelineIdleMinutes));
+        }
+        Properties coreNlpProps;
+        try {
+            coreNlpProps = coreNlpProperties(documentLanguage());
+        } catch (IllegalArgumentException e) {
+            // an unknown language or profile
+            throw new ExecutionException(e);
         }
         if (this.includeTokenizer) {
             if (!includeParse) {
@@ -97,10 +137,97 @@ public class CoreNLP extends AbstractLanguageAnalyser implements ProcessingResou
         }
     }
 
+    /**
+     * The language of the current document: with several languages configured, the one in its language feature,
+     * or else the guess from its text, which is then recorded in that feature; otherwise the language parameter.
+     */
+    private String documentLanguage() {
+        if (this.languages == null || this.languages.trim().isEmpty()) {
+            return this.language;
+        }
+        List<String> candidates = new ArrayList<>();
+        for (String candidate : this.languages.split(",")) {
+            candidates.add(LanguageGuesser.normalize(candidate));
+        }
+        Object feature = this.document.getFeatures().get(this.languageFeature);
+        if (feature != null && candidates.contains(LanguageGuesser.normalize(feature.toString()))) {
+            return LanguageGuesser.normalize(feature.toString());
+        }
+        String guess;
+        try {
+            // the guesser only looks at the start of the text
+            guess = LanguageGuesser.guess(this.document.getContent().getContent(0L,
+                    Math.min(this.document.getContent().size(), LanguageGuesser.MAX_CHARS)).toString(), candidates);
+        } catch (InvalidOffsetException e) {
+            throw new GateRuntimeException(e);
+        }
+        if (feature == null) {
+            this.document.getFeatures().put(this.languageFeature, guess);
+        }
+        return guess;
+    }
+
+    /**
+     * The CoreNLP properties for this PR's language, profile and parser settings, without the annotators.
+     */
+    Properties coreNlpProperties() {
+        return coreNlpProperties(this.language);
+    }
+
+    private Properties coreNlpProperties(String language) {
+        Properties coreNlpProps = PipelineProfile.load(language, this.profile);
+        // Spanish always uses its own SR model
+        if (srParse && !language.equals("spanish")) {
+            coreNlpProps.setProperty("parse.model", "edu/stanford/nlp/models/srparser/englishSR.beam.ser.gz");
+        }
+        if (this.adaptiveParse != null && this.adaptiveParse) {
+            // PCFG for the short sentences, SR for the long ones
+            boolean spanish = language.equals("spanish");
+            coreNlpProps.setProperty("parse.model", spanish ? "edu/stanford/nlp/models/lexparser/spanishPCFG.ser.gz"
+                    : "edu/stanford/nlp/models/lexparser/englishPCFG.ser.gz");
+            coreNlpProps.setProperty(AdaptiveParser.MODEL_PROPERTY, spanish
+                    ? "edu/stanford/nlp/models/srparser/spanishSR.beam.ser.gz"
+                    : "edu/stanford/nlp/models/srparser/englishSR.beam.ser.gz");
+            coreNlpProps.setProperty(AdaptiveParser.LENGTH_PROPERTY, String.valueOf(this.adaptiveParseLength));
+        }
+        if (this.parserWorkers != null && this.parserWorkers > 0) {
+            coreNlpProps.setProperty(ParserWorkerPool.COUNT_PROPERTY, String.valueOf(this.parserWorkers));
+            coreNlpProps.setProperty(ParserWorkerPool.HEAP_PROPERTY, this.parserWorkerHeap);
+            coreNlpProps.setProperty(ParserWorkerPool.TIMEOUT_PROPERTY, String.valueOf(this.parserWorkerTimeout));
+        }
+        if (this.sentenceThreads != null && this.sentenceThreads > 1) {
+            coreNlpProps.setProperty(StagedPipeline.SENTENCE_THREADS_PROPERTY, String.valueOf(this.sentenceThreads));
+            coreNlpProps.setProperty(StagedPipeline.SCHEDULE_PROPERTY, this.sentenceSchedule);
+        }
+        PipelineProfile.override(coreNlpProps, this.profileOverrides);
+        return coreNlpProps;
+    }
+
+    /**
+     * Returns a publisher of the parsed sentences of the given document, with this PR's language and parser
+     * settings, for consumers that want each sentence as soon as it is parsed rather than the GATE annotations
+     * of the whole document at the end of execute().
+     */
+    public SentencePublisher sentencePublisher(Document document, Executor executor) {
+        return new SentencePublisher(coreNlpProperties(), AnnotationHandoff.text(document), executor);
+    }
+
     public void executeWithTokenizer(Properties props) throws ExecutionException {
-        StanfordCoreNLP pipeline = new StanfordCoreNLP(props);
-        CoreDocument document = new CoreDocument(this.document.getContent().toString());
-        pipeline.annotate(document);
+        edu.stanford.nlp.pipeline.Annotation annotation = new edu.stanford.nlp.pipeline.Annotation(AnnotationHandoff.text(this.document));
+        annotate(props, annotation, slowSentenceListener());
+        addTokenizedAnnotations(annotation);
+    }
+
+    /**
+     * Adds the Sentence, Token, SyntaxTreeNode and Dependency annotations for a parsed annotation of
+     * the whole document text to the document.
+     */
+    void addTokenizedAnnotations(edu.stanford.nlp.pipeline.Annotation annotation) {
+        CoreDocument document = new CoreDocument(annotation);
+        PipelineStats stats = PipelineStats.get();
+        long conversionStart = stats.start();
+        GateConversionEvent conversion = GateConversionEvent.begin(this, this.document);
+        int treeNodes = 0;
         AnnotationSet outputAS = this.document.getAnnotations();
         List<DependencyAnn> dependencyAnnList = new ArrayList<>();
         for (CoreSentence sentence : document.sentences()) {
@@ -109,7 +236,7 @@ public class CoreNLP extends AbstractLanguageAnalyser implements ProcessingResou
             int sentenceEndIndex = sentence.tokens().get(sentence.tokens().size() - 1).endPosition();
             try {
                 outputAS.add((long) sentenceStartIndex, (long) sentenceEndIndex,
-                        "Sentence", Factory.newFeatureMap());
+                        "Sentence", sentenceFeatures(sentence.coreMap()));
             } catch (InvalidOffsetException e) {
                 e.printStackTrace();
             }
@@ -130,45 +257,14 @@ public class CoreNLP extends AbstractLanguageAnalyser implements ProcessingResou
             } else {
                 depGraph = sentence.coreMap().get(SemanticGraphCoreAnnotations.BasicDependenciesAnnotation.class);
             }
-            for (IndexedWord currWord : depGraph.vertexListSorted()) {
-                List<DependencyRelation> dependencies = new ArrayList<>();
-                List<IndexedWord> dependants = new ArrayList<>();
-                FeatureMap currWordFeatures = Factory.newFeatureMap();
-                for (SemanticGraphEdge outEdge : depGraph.outgoingEdgeList(currWord)) {
-                    dependencies.add(new DependencyRelation(outEdge.getRelation().toString(),
-                            outEdge.getDependent().index() + sentenceOffset));
-                    dependants.add(outEdge.getDependent());
-                }
-                currWordFeatures.put("dependencies", dependencies);
-                currWordFeatures.put("length", currWord.originalText().length());
-                currWordFeatures.put("string", currWord.originalText());
-                currWordFeatures.put("category", sentence.posTags().get(currWord.index() - 1));
-                try {
-                    outputAS.add(currWord.index() + sentenceOffset, (long) currWord.beginPosition(),
-                            (long) currWord.endPosition(), "Token", currWordFeatures);
-                } catch (InvalidOffsetException e) {
-                    e.printStackTrace();
-                }
-                // Add dependencies corresponding to the current word
-                for (int i = 0; i < dependants.size(); i++) {
-                    FeatureMap depFeatures = Factory.newFeatureMap();
-                    DependencyAnn depAnn = new DependencyAnn();
-                    depAnn.startOffset = currWord.beginPosition();
-                    depAnn.endOffset = currWord.endPosition();
-                    List<Integer> depArgs = new ArrayList<>();
-                    depArgs.add(currWord.index() + sentenceOffset);
-                    depArgs.add(dependants.get(i).index() + sentenceOffset);
-                    depFeatures.put("args", depArgs);
-                    depFeatures.put("kind",dependencies.get(i).getType());
-                    depAnn.featureMap = depFeatures;
-                    dependencyAnnList.add(depAnn);
-                }
-            }
+            addTokensWithDependencies(depGraph, sentence.posTags(), sentenceOffset, outputAS, dependencyAnnList);
             sentenceOffset += depGraph.vertexListSorted().size() + 1;
             Tree constituencyTree = sentence.constituencyParse();
+            List<Tree> nodeOrdering = constituencyTree.preOrderNodeList();
             createToken(constituencyTree, sentence.tokens(), constituencyTree.getLeaves(),
-                    constituencyTree.preOrderNodeList(), sentenceOffset, outputAS);
-            sentenceOffset += constituencyTree.preOrderNodeList().size() + 1;
+                    nodeOrdering, sentenceOffset, outputAS);
+            sentenceOffset += nodeOrdering.size() + 1;
+            treeNodes += nodeOrdering.size();
         }
         for (DependencyAnn depAnn: dependencyAnnList) {
             try {
@@ -177,12 +273,82 @@ public class CoreNLP extends AbstractLanguageAnalyser implements ProcessingResou
                 e.printStackTrace();
             }
         }
+        stats.stop(PipelineStats.GATE_CONVERSION, conversionStart);
+        conversion.finish(document.sentences().size(), document.tokens().size());
+        stats.addSentences(document.sentences().size());
+        stats.addTokens(document.tokens().size());
+        stats.addTreeNodes(treeNodes);
+        stats.addDependencies(dependencyAnnList.size());
+    }
+
+    /**
+     * The features of the Sentence annotation for a parsed sentence: the parser it was given, if that was
+     * chosen per sentence.
+     */
+    private static FeatureMap sentenceFeatures(CoreMap sentence) {
+        FeatureMap features = Factory.newFeatureMap();
+        String parser = sentence.get(AdaptiveParser.ParserAnnotation.class);
+        if (parser != null) {
+            features.put("parser", parser);
+        }
+        return features;
+    }
+
+    /**
+     * Adds a Token annotation for every word of the given dependency graph, carrying its
+     * outgoing dependencies, and collects the matching Dependency annotations.
+     *
+     * @param depGraph          the dependency graph of the sentence
+     * @param posTags           the POS tags of the sentence tokens
+     * @param sentenceOffset    offset used to give Token annotations unique IDs
+     * @param outputAS          the output annotation set
+     * @param dependencyAnnList receives the Dependency annotations, added to outputAS by the caller
+     */
+    void addTokensWithDependencies(SemanticGraph depGraph, List<String> posTags, int sentenceOffset,
+                                   AnnotationSet outputAS, List<DependencyAnn> dependencyAnnList) {
+        for (IndexedWord currWord : depGraph.vertexListSorted()) {
+            List<DependencyRelation> dependencies = new ArrayList<>();
+            List<IndexedWord> dependants = new ArrayList<>();
+            FeatureMap currWordFeatures = Factory.newFeatureMap();
+            for (SemanticGraphEdge outEdge : depGraph.outgoingEdgeList(currWord)) {
+                dependencies.add(new DependencyRelation(outEdge.getRelation().toString(),
+                        outEdge.getDependent().index() + sentenceOffset));
+                dependants.add(outEdge.getDependent());
+            }
+            currWordFeatures.put("dependencies", dependencies);
+            currWordFeatures.put("length", currWord.originalText().length());
+            currWordFeatures.put("string", currWord.originalText());
+            currWordFeatures.put("category", posTags.get(currWord.index() - 1));
+            try {
+                outputAS.add(currWord.index() + sentenceOffset, (long) currWord.beginPosition(),
+                        (long) currWord.endPosition(), "Token", currWordFeatures);
+            } catch (InvalidOffsetException e) {
+                e.printStackTrace();
+            }
+            // Add dependencies corresponding to the current word
+            for (int i = 0; i < dependants.size(); i++) {
+                FeatureMap depFeatures = Factory.newFeatureMap();
+                DependencyAnn depAnn = new DependencyAnn();
+                depAnn.startOffset = currWord.beginPosition();
+                depAnn.endOffset = currWord.endPosition();
+                List<Integer> depArgs = new ArrayList<>();
+                depArgs.add(currWord.index() + sentenceOffset);
+                depArgs.add(dependants.get(i).index() + sentenceOffset);
+                depFeatures.put("args", depArgs);
+                depFeatures.put("kind",dependencies.get(i).getType());
+                depAnn.featureMap = depFeatures;
+                dependencyAnnList.add(depAnn);
+            }
+        }
     }
 
     public void executeWithTokenizerNoParse(Properties props) throws ExecutionException {
-        StanfordCoreNLP pipeline = new StanfordCoreNLP(props);
-        CoreDocument document = new CoreDocument(this.document.getContent().toString());
-        pipeline.annotate(document);
+        edu.stanford.nlp.pipeline.Annotation annotation = new edu.stanford.nlp.pipeline.Annotation(AnnotationHandoff.text(this.document));
+        annotate(props, annotation, null);
+        CoreDocument document = new CoreDocument(annotation);
+        PipelineStats stats = PipelineStats.get();
+        long conversionStart = stats.start();
+        GateConversionEvent conversion = GateConversionEvent.begin(this, this.document);
         AnnotationSet outputAS = this.document.getAnnotations();
         List<DependencyAnn> dependencyAnnList = new ArrayList<>();
         for (CoreSentence sentence : document.sentences()) {
@@ -223,6 +389,56 @@ public class CoreNLP extends AbstractLanguageAnalyser implements ProcessingResou
                }
             }
         }
+        stats.stop(PipelineStats.GATE_CONVERSION, conversionStart);
+        conversion.finish(document.sentences().size(), document.tokens().size());
+        stats.addSentences(document.sentences().size());
+        stats.addTokens(document.tokens().size());
+    }
+
+    /**
+     * Runs the pipeline described by props on the annotation, in this JVM or, if serverUrl is set, on
+     * the CoreNLP server.
+     */
+    private void annotate(Properties props, edu.stanford.nlp.pipeline.Annotation annotation,
+                          StagedPipeline.SentenceListener listener) throws ExecutionException {
+        if (this.serverUrl == null || this.serverUrl.isEmpty()) {
+            try (StagedPipeline.Lease pipeline = StagedPipeline.get(props)) {
+                this.pipelineGenerations.put(pipeline.getKey(), pipeline.getGeneration());
+                pipeline.annotate(annotation, this.document.getName(), listener);
+            }
+            return;
+        }
+        PipelineStats stats = PipelineStats.get();
+        long start = stats.start();
+        try {
+            CoreNLPServerClient client = CoreNLPServerClient.get(this.serverUrl, this.serverRequests,
+                    this.serverBatchChars, this.serverBatchWait, this.serverConnectTimeout, this.serverReadTimeout);
+            client.annotate(annotation, props);
+        } catch (IOException e) {
+            throw new ExecutionException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ExecutionException(e);
+        }
+        stats.stop(PipelineStats.SERVER, start);
+    }
+
+    /**
+     * Returns a listener that appends sentences slower than slowSentenceThreshold to the
+     * slow sentence log, or null if no log is configured.
+     */
+    private StagedPipeline.SentenceListener slowSentenceListener() {
+        if (this.slowSentenceLog == null || this.slowSentenceLog.isEmpty()) {
+            return null;
+        }
+        SlowSentenceLog log = SlowSentenceLog.get(this.slowSentenceLog);
+        long thresholdNanos = TimeUnit.MILLISECONDS.toNanos(this.slowSentenceThreshold);
+        String documentName = this.document.getName();
+        return (stage, parser, sentence, elapsedNanos) -> {
+            if (elapsedNanos >= thresholdNanos) {
+                log.append(documentName, stage, parser, sentence, elapsedNanos);
+            }
+        };
     }
 
     /**
@@ -284,20 +500,39 @@ public class CoreNLP extends AbstractLanguageAnalyser implements ProcessingResou
 
     private Map<Long,Annotation> posToToken = new HashMap<>();
 
-    private void addTokens(edu.stanford.nlp.pipeline.Annotation document) {
+    /**
+     * Returns a CoreNLP annotation holding the document's GATE tokens, and fills in posToToken.
+     * The annotation handed off by an earlier PR of this plugin is reused when the Token
+     * annotations haven't changed since; otherwise it is rebuilt through addTokens.
+     */
+    private edu.stanford.nlp.pipeline.Annotation tokenizedDocument() {
+        this.posToToken = new HashMap<>();
+        AnnotationHandoff.Entry handoff = AnnotationHandoff.get(this.document);
+        if (handoff != null) {
+            AnnotationSet inputAS = this.document.getAnnotations();
+            for (Map.Entry<Long, Integer> tokenId : handoff.getTokenIds().entrySet()) {
+                this.posToToken.put(tokenId.getKey(), inputAS.get(tokenId.getValue()));
+            }
+            return handoff.getAnnotation();
+        }
+        edu.stanford.nlp.pipeline.Annotation document = new edu.stanford.nlp.pipeline.Annotation(AnnotationHandoff.text(this.document));
+        addTokens(document);
+        Map<Long, Integer> tokenIds = new HashMap<>();
+        for (Map.Entry<Long, Annotation> token : this.posToToken.entrySet()) {
+            tokenIds.put(token.getKey(), token.getValue().getId());
+        }
+        AnnotationHandoff.put(this.document, document, tokenIds);
+        return document;
+    }
+
+    void addTokens(edu.stanford.nlp.pipeline.Annotation document) {
         List<CoreLabel> tokenLabelList = new ArrayList<>();
         for (Annotation ano : this.document.getAnnotations()) {
             // filter for tokens
             if (ano.getType().equals("Token")) {
                 String tokenString = (String)ano.getFeatures().get("string");
-                CoreLabel tokenLabel = CoreLabel.wordFromString(tokenString);
-                tokenLabel.set(CoreAnnotations.CharacterOffsetBeginAnnotation.class,
-                        Math.toIntExact(ano.getStartNode().getOffset()));
-                tokenLabel.set(CoreAnnotations.CharacterOffsetEndAnnotation.class,
-                        Math.toIntExact(ano.getEndNode().getOffset()));
-                tokenLabel.set(CoreAnnotations.TextAnnotation.class, tokenString);
-                tokenLabel.set(CoreAnnotations.IsNewlineAnnotation.class, false);
-                tokenLabel.set(CoreAnnotations.ValueAnnotation.class, tokenString);
+                CoreLabel tokenLabel = AnnotationHandoff.tokenLabel(tokenString,
+                        ano.getStartNode().getOffset(), ano.getEndNode().getOffset());
                 tokenLabelList.add(tokenLabel);
 //                System.out.println("Generated Token: " + tokenString + " (" +
 //                        ano.getStartNode().getOffset()+ "," + ano.getEndNode().getOffset() + ")");
@@ -312,17 +547,19 @@ public class CoreNLP extends AbstractLanguageAnalyser implements ProcessingResou
     }
 
     public void executeWithoutTokenizer(Properties props) throws ExecutionException {
-        edu.stanford.nlp.pipeline.Annotation document = new edu.stanford.nlp.pipeline.Annotation(this.document.getContent().toString());
-        addTokens(document);
+        edu.stanford.nlp.pipeline.Annotation document = tokenizedDocument();
 //        for (CoreLabel label : document.get(CoreAnnotations.TokensAnnotation.class)) {
 //            System.out.println(label.get(CoreAnnotations.CharacterOffsetBeginAnnotation.class) + ","
 //                    + label.get(CoreAnnotations.CharacterOffsetEndAnnotation.class) + " " + label.word());
 //        }
         // we don't tokenize
         props.setProperty("annotators", "ssplit,pos,parse,depparse");
-        StanfordCoreNLP pipeline = new StanfordCoreNLP(props, false);
-        pipeline.annotate(document);
+        annotate(props, document, slowSentenceListener());
         CoreDocument coreDocument = new CoreDocument(document);
+        PipelineStats stats = PipelineStats.get();
+        long conversionStart = stats.start();
+        GateConversionEvent conversion = GateConversionEvent.begin(this, this.document);
+        int treeNodes = 0;
         AnnotationSet outputAS = this.document.getAnnotations();
         for (CoreSentence sentence : coreDocument.sentences()) {
             // First, add the sentence
@@ -330,7 +567,7 @@ public class CoreNLP extends AbstractLanguageAnalyser implements ProcessingResou
             int sentenceEndIndex = sentence.tokens().get(sentence.tokens().size() - 1).endPosition();
             try {
                 outputAS.add((long) sentenceStartIndex, (long) sentenceEndIndex,
-                        "Sentence", Factory.newFeatureMap());
+                        "Sentence", sentenceFeatures(sentence.coreMap()));
             } catch (InvalidOffsetException e) {
                 e.printStackTrace();
             }
@@ -379,9 +616,11 @@ public class CoreNLP extends AbstractLanguageAnalyser implements ProcessingResou
             }
             sentenceOffset += depGraph.vertexListSorted().size() + 1;
             Tree constituencyTree = sentence.constituencyParse();
+            List<Tree> nodeOrdering = constituencyTree.preOrderNodeList();
             createSyntaxTreeNode(constituencyTree, sentence.tokens(), constituencyTree.getLeaves(),
-                    constituencyTree.preOrderNodeList(), sentenceOffset, outputAS);
-            sentenceOffset += constituencyTree.preOrderNodeList().size() + 1;
+                    nodeOrdering, sentenceOffset, outputAS);
+            sentenceOffset += nodeOrdering.size() + 1;
+            treeNodes += nodeOrdering.size();
         }
         for (DependencyAnn depAnn: dependencyAnnList) {
             try {
@@ -390,15 +629,22 @@ public class CoreNLP extends AbstractLanguageAnalyser implements ProcessingResou
                 e.printStackTrace();
             }
         }
+        stats.stop(PipelineStats.GATE_CONVERSION, conversionStart);
+        conversion.finish(coreDocument.sentences().size(), this.posToToken.size());
+        // the tokens were counted by the PR that made them
+        stats.addSentences(coreDocument.sentences().size());
+        stats.addTreeNodes(treeNodes);
+        stats.addDependencies(dependencyAnnList.size());
     }
 
 
     public void executeWithoutTokenizerNoParse(Properties props) throws ExecutionException {
-        edu.stanford.nlp.pipeline.Annotation document = new edu.stanford.nlp.pipeline.Annotation(this.document.getContent().toString());
-        addTokens(document);
-        StanfordCoreNLP pipeline = new StanfordCoreNLP(props, false);
-        pipeline.annotate(document);
+        edu.stanford.nlp.pipeline.Annotation document = tokenizedDocument();
+        annotate(props, document, null);
         CoreDocument coreDocument = new CoreDocument(document);
+        PipelineStats stats = PipelineStats.get();
+        long conversionStart = stats.start();
+        GateConversionEvent conversion = GateConversionEvent.begin(this, this.document);
         AnnotationSet outputAS = this.document.getAnnotations();
         for (CoreSentence sentence : coreDocument.sentences()) {
             // First, add the sentence
@@ -421,6 +667,10 @@ public class CoreNLP extends AbstractLanguageAnalyser implements ProcessingResou
                 currTokenFeatures.put("string", currToken.word());
             }
         }
+        stats.stop(PipelineStats.GATE_CONVERSION, conversionStart);
+        conversion.finish(coreDocument.sentences().size(), this.posToToken.size());
+        // the tokens were counted by the PR that made them
+        stats.addSentences(coreDocument.sentences().size());
     }
 //
 //    private void addSentencesAndTokens(edu.stanford.nlp.pipeline.Annotation document) {
@@ -633,6 +883,226 @@ public class CoreNLP extends AbstractLanguageAnalyser implements ProcessingResou
         this.language = language;
     }
 
+    @RunTime
+    @Optional
+    @CreoleParameter(comment = "If set, sentences slower to parse than slowSentenceThreshold are appended to this file")
+    public void setSlowSentenceLog(String slowSentenceLog) {
+        this.slowSentenceLog = slowSentenceLog;
+    }
+
+    @RunTime
+    @Optional
+    @CreoleParameter(comment = "Parse time in milliseconds above which a sentence goes to the slow sentence log", defaultValue = "2000")
+    public void setSlowSentenceThreshold(Integer slowSentenceThreshold) {
+        this.slowSentenceThreshold = slowSentenceThreshold;
+    }
+
+    @RunTime
+    @Optional
+    @CreoleParameter(comment = "If above 0, parse and depparse run in this many child JVMs, keeping their garbage out of this heap", defaultValue = "0")
+    public void setParserWorkers(Integer parserWorkers) {
+        this.parserWorkers = parserWorkers;
+    }
+
+    @RunTime
+    @Optional
+    @CreoleParameter(comment = "Maximum heap of each parser worker JVM; a worker that runs out is restarted", defaultValue = "2g")
+    public void setParserWorkerHeap(String parserWorkerHeap) {
+        this.parserWorkerHeap = parserWorkerHeap;
+    }
+
+    @RunTime
+    @Optional
+    @CreoleParameter(comment = "Milliseconds a parser worker may spend on one sentence before it is restarted", defaultValue = "60000")
+    public void setParserWorkerTimeout(Integer parserWorkerTimeout) {
+        this.parserWorkerTimeout = parserWorkerTimeout;
+    }
+
+    @RunTime
+    @Optional
+    @CreoleParameter(comment = "If set, e.g. to http://localhost:9000, documents are annotated by this StanfordCoreNLPServer instead of in process")
+    public void setServerUrl(String serverUrl) {
+        this.serverUrl = serverUrl;
+    }
+
+    @RunTime
+    @Optional
+    @CreoleParameter(comment = "Maximum number of requests sent to the CoreNLP server at once", defaultValue = "4")
+    public void setServerRequests(Integer serverRequests) {
+        this.serverRequests = serverRequests;
+    }
+
+    @RunTime
+    @Optional
+    @CreoleParameter(comment = "Documents shorter than this many characters are batched into one server request; 0 to send each on its own", defaultValue = "2000")
+    public void setServerBatchChars(Integer serverBatchChars) {
+        this.serverBatchChars = serverBatchChars;
+    }
+
+    @RunTime
+    @Optional
+    @CreoleParameter(comment = "Milliseconds a document waits for others to batch with before it is sent to the server", defaultValue = "5")
+    public void setServerBatchWait(Integer serverBatchWait) {
+        this.serverBatchWait = serverBatchWait;
+    }
+
+    @RunTime
+    @Optional
+    @CreoleParameter(comment = "Milliseconds to wait for a connection to the CoreNLP server; 0 waits forever", defaultValue = "10000")
+    public void setServerConnectTimeout(Integer serverConnectTimeout) {
+        this.serverConnectTimeout = serverConnectTimeout;
+    }
+
+    @RunTime
+    @Optional
+    @CreoleParameter(comment = "Milliseconds the CoreNLP server may stay silent while answering before the document fails; 0 waits forever", defaultValue = "600000")
+    public void setServerReadTimeout(Integer serverReadTimeout) {
+        this.serverReadTimeout = serverReadTimeout;
+    }
+
+    @RunTime
+    @Optional
+    @CreoleParameter(comment = "If above 1, the sentences of a document are parsed in parallel on this many threads", defaultValue = "1")
+    public void setSentenceThreads(Integer sentenceThreads) {
+        this.sentenceThreads = sentenceThreads;
+    }
+
+    @RunTime
+    @Optional
+    @CreoleParameter(comment = "The order sentences are parsed in on those threads: lpt for the most expensive first, inorder for document order", defaultValue = "lpt")
+    public void setSentenceSchedule(String sentenceSchedule) {
+        this.sentenceSchedule = sentenceSchedule;
+    }
+
+    @RunTime
+    @Optional
+    @CreoleParameter(comment = "The speed/accuracy profile: fast, balanced or accurate, or the path of a properties file", defaultValue = "balanced")
+    public void setProfile(String profile) {
+        this.profile = profile;
+    }
+
+    @RunTime
+    @Optional
+    @CreoleParameter(comment = "CoreNLP properties set over the profile and the other parameters, as name=value pairs separated by semicolons, e.g. parse.maxlen=60")
+    public void setProfileOverrides(String profileOverrides) {
+        this.profileOverrides = profileOverrides;
+    }
+
+    @RunTime
+    @Optional
+    @CreoleParameter(comment = "Comma separated languages to route documents between, e.g. english,spanish; empty to use the language parameter for all")
+    public void setLanguages(String languages) {
+        this.languages = languages;
+    }
+
+    @RunTime
+    @Optional
+    @CreoleParameter(comment = "The document feature giving its language when routing; documents without it get the language guessed from their text", defaultValue = "language")
+    public void setLanguageFeature(String languageFeature) {
+        this.languageFeature = languageFeature;
+    }
+
+    @RunTime
+    @Optional
+    @CreoleParameter(comment = "Loaded pipelines unused for this many minutes are dropped to free their models; 0 to keep them", defaultValue = "30")
+    public void setPipelineIdleMinutes(Integer pipelineIdleMinutes) {
+        this.pipelineIdleMinutes = pipelineIdleMinutes;
+    }
+
+    public String getLanguages() {
+        return this.languages;
+    }
+
+    public String getLanguageFeature() {
+        return this.languageFeature;
+    }
+
+    public Integer getPipelineIdleMinutes() {
+        return this.pipelineIdleMinutes;
+    }
+
+    public String getProfile() {
+        return this.profile;
+    }
+
+    public String getProfileOverrides() {
+        return this.profileOverrides;
+    }
+
+    @RunTime
+    @Optional
+    @CreoleParameter(comment = "Choose the parser for each sentence: PCFG up to adaptiveParseLength tokens, SR beyond, with the limit lowered under load; overrides srParse", defaultValue = "false")
+    public void setAdaptiveParse(Boolean adaptiveParse) {
+        this.adaptiveParse = adaptiveParse;
+    }
+
+    @RunTime
+    @Optional
+    @CreoleParameter(comment = "The longest sentence given the PCFG parser by adaptiveParse when the parser isn't busy", defaultValue = "40")
+    public void setAdaptiveParseLength(Integer adaptiveParseLength) {
+        this.adaptiveParseLength = adaptiveParseLength;
+    }
+
+    public Boolean getAdaptiveParse() {
+        return this.adaptiveParse;
+    }
+
+    public Integer getAdaptiveParseLength() {
+        return this.adaptiveParseLength;
+    }
+
+    public Integer getSentenceThreads() {
+        return this.sentenceThreads;
+    }
+
+    public String getSentenceSchedule() {
+        return this.sentenceSchedule;
+    }
+
+    public String getServerUrl() {
+        return this.serverUrl;
+    }
+
+    public Integer getServerRequests() {
+        return this.serverRequests;
+    }
+
+    public Integer getServerBatchChars() {
+        return this.serverBatchChars;
+    }
+
+    public Integer getServerBatchWait() {
+        return this.serverBatchWait;
+    }
+
+    public Integer getServerConnectTimeout() {
+        return this.serverConnectTimeout;
+    }
+
+    public Integer getServerReadTimeout() {
+        return this.serverReadTimeout;
+    }
+
+    public Integer getParserWorkers() {
+        return this.parserWorkers;
+    }
+
+    public String getParserWorkerHeap() {
+        return this.parserWorkerHeap;
+    }
+
+    public Integer getParserWorkerTimeout() {
+        return this.parserWorkerTimeout;
+    }
+
+    public String getSlowSentenceLog() {
+        return this.slowSentenceLog;
+    }
+
+    public Integer getSlowSentenceThreshold() {
+        return this.slowSentenceThreshold;
+    }
+
     public Boolean getIncludeTokenizer() {return this.includeTokenizer;}
 
     public Boolean getIncludeSentenceSplitter() {return this.includeSentenceSplitter;}
@@ -0,0 +1,372 @@
+package ca.concordia.gate;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.ling.IndexedWord;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.ProtobufAnnotationSerializer;
+import edu.stanford.nlp.semgraph.SemanticGraph;
+import edu.stanford.nlp.util.CoreMap;
+import edu.stanford.nlp.util.TypesafeMap;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends documents to a running StanfordCoreNLPServer instead of annotating them in this JVM. The server returns
+ * the same CoreNLP annotations as the in-process pipeline, so the GATE conversion doesn't change.
+ * <p>
+ * Documents go both ways as protobuf, with the properties of the pipeline in the query string, so the server
+ * builds and caches the same pipeline we would. Requests use HttpURLConnection, whose connections to the server
+ * are kept alive and reused by the JDK (up to the http.maxConnections system property, default 5), and at
+ * most maxInFlight requests are sent at once. A server that does not accept the connection within
+ * connectTimeoutMillis, or goes quiet for readTimeoutMillis while answering, fails the request with an
+ * IOException instead of hanging the caller; 0 waits forever.
+ * <p>
+ * Documents the server tokenizes and that are shorter than batchChars are batched: the first one waits up to
+ * batchWaitMillis for documents from other threads, and they are sent as one text joined by blank lines. A
+ * blank line always ends a sentence with CoreNLP's default ssplit.newlineIsSentenceBreak of "two", so every
+ * sentence of the batch belongs to one document, and its tokens and sentences are split back out with offsets
+ * relative to that document.
+ */
+public class CoreNLPServerClient {
+    private static final Map<String, CoreNLPServerClient> clients = new HashMap<>();
+    private static final String SEPARATOR = "\n\n";
+
+    private final URL url;
+    private final Semaphore inFlight;
+    private final int batchChars;
+    private final long batchWaitNanos;
+    private final int connectTimeoutMillis;
+    private final int readTimeoutMillis;
+    private final Map<String, Batch> openBatches = new HashMap<>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong documents = new AtomicLong();
+
+    public CoreNLPServerClient(URL url, int maxInFlight, int batchChars, int batchWaitMillis,
+                               int connectTimeoutMillis, int readTimeoutMillis) {
+        this.url = url;
+        this.inFlight = new Semaphore(Math.max(1, maxInFlight), true);
+        this.batchChars = batchChars;
+        this.batchWaitNanos = TimeUnit.MILLISECONDS.toNanos(batchWaitMillis);
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * Return the client for the given server and settings, shared by every PR that uses them, so that their
+     * documents can be batched together and their requests count against the same limit.
+     */
+    public static CoreNLPServerClient get(String url, int maxInFlight, int batchChars, int batchWaitMillis,
+                                         int connectTimeoutMillis, int readTimeoutMillis) throws IOException {
+        String key = url + " " + maxInFlight + " " + batchChars + " " + batchWaitMillis + " " + connectTimeoutMillis
+                + " " + readTimeoutMillis;
+        synchronized (clients) {
+            CoreNLPServerClient client = clients.get(key);
+            if (client == null) {
+                client = new CoreNLPServerClient(new URL(url), maxInFlight, batchChars, batchWaitMillis,
+                        connectTimeoutMillis, readTimeoutMillis);
+                clients.put(key, client);
+            }
+            return client;
+        }
+    }
+
+    /**
+     * Run the pipeline the given properties describe on the document, on the server. The results are set on
+     * the document, as the in-process pipeline would.
+     */
+    public void annotate(Annotation document, Properties props) throws IOException, InterruptedException {
+        String text = document.get(CoreAnnotations.TextAnnotation.class);
+        if (!isBatchable(props) || text.length() >= this.batchChars
+                || document.containsKey(CoreAnnotations.TokensAnnotation.class)) {
+            copy(send(document, props), document);
+            this.documents.incrementAndGet();
+            return;
+        }
+        String key = StagedPipeline.cacheKey(props);
+        Batch batch;
+        boolean leader;
+        synchronized (this.openBatches) {
+            batch = this.openBatches.get(key);
+            leader = batch == null;
+            if (leader) {
+                batch = new Batch(props);
+                this.openBatches.put(key, batch);
+            }
+            batch.documents.add(document);
+            batch.chars += text.length() + SEPARATOR.length();
+            if (batch.chars >= this.batchChars) {
+                this.openBatches.remove(key, batch);
+                this.openBatches.notifyAll();
+            }
+        }
+        if (leader) {
+            boolean interrupted = false;
+            synchronized (this.openBatches) {
+                long deadline = System.nanoTime() + this.batchWaitNanos;
+                long remaining;
+                while (this.openBatches.get(key) == batch && (remaining = deadline - System.nanoTime()) > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.timedWait(this.openBatches, remaining);
+                    } catch (InterruptedException e) {
+                        // the others are waiting on this batch, so send it anyway
+                        interrupted = true;
+                        break;
+                    }
+                }
+                this.openBatches.remove(key, batch);
+            }
+            try {
+                sendBatch(batch);
+            } catch (IOException | RuntimeException e) {
+                batch.failure = e;
+            } catch (InterruptedException e) {
+                batch.failure = e;
+                interrupted = true;
+            } finally {
+                batch.done.countDown();
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        } else {
+            batch.done.await();
+        }
+        if (batch.failure != null) {
+            throw new IOException("Batch of " + batch.documents.size() + " documents failed", batch.failure);
+        }
+    }
+
+    /**
+     * Only raw text is batched, and only if blank lines are sure to end sentences.
+     */
+    private boolean isBatchable(Properties props) {
+        return this.batchChars > 0
+                && props.getProperty("annotators", "").startsWith("tokenize")
+                && props.getProperty("ssplit.newlineIsSentenceBreak", "two").equals("two");
+    }
+
+    private void sendBatch(Batch batch) throws IOException, InterruptedException {
+        if (batch.documents.size() == 1) {
+            copy(send(batch.documents.get(0), batch.props), batch.documents.get(0));
+            this.documents.incrementAndGet();
+            return;
+        }
+        StringBuilder text = new StringBuilder();
+        int[] starts = new int[batch.documents.size()];
+        for (int i = 0; i < starts.length; i++) {
+            if (i > 0) {
+                text.append(SEPARATOR);
+            }
+            starts[i] = text.length();
+            text.append(batch.documents.get(i).get(CoreAnnotations.TextAnnotation.class));
+        }
+        Annotation combined = send(new Annotation(text.toString()), batch.props);
+        List<CoreMap> sentences = combined.get(CoreAnnotations.SentencesAnnotation.class);
+        int next = 0;
+        for (int i = 0; i < starts.length; i++) {
+            Annotation document = batch.documents.get(i);
+            int end = starts[i] + document.get(CoreAnnotations.TextAnnotation.class).length();
+            List<CoreMap> own = new ArrayList<>();
+            while (next < sentences.size()
+                    && sentences.get(next).get(CoreAnnotations.CharacterOffsetBeginAnnotation.class) < end) {
+                own.add(sentences.get(next++));
+            }
+            split(own, starts[i], document);
+        }
+        this.documents.addAndGet(starts.length);
+    }
+
+    /**
+     * Set the given sentences of a batch on one of its documents, shifting their offsets so that they are
+     * relative to the document's own text.
+     */
+    static void split(List<CoreMap> sentences, int charStart, Annotation document) {
+        List<CoreLabel> tokens = new ArrayList<>();
+        int tokenStart = sentences.isEmpty() ? 0
+                : sentences.get(0).get(CoreAnnotations.TokenBeginAnnotation.class);
+        for (int i = 0; i < sentences.size(); i++) {
+            CoreMap sentence = sentences.get(i);
+            List<CoreLabel> sentenceTokens = sentence.get(CoreAnnotations.TokensAnnotation.class);
+            for (CoreLabel token : sentenceTokens) {
+                token.setBeginPosition(token.beginPosition() - charStart);
+                token.setEndPosition(token.endPosition() - charStart);
+                token.setSentIndex(i);
+                if (token.containsKey(CoreAnnotations.TokenBeginAnnotation.class)) {
+                    token.set(CoreAnnotations.TokenBeginAnnotation.class,
+                            token.get(CoreAnnotations.TokenBeginAnnotation.class) - tokenStart);
+                    token.set(CoreAnnotations.TokenEndAnnotation.class,
+                            token.get(CoreAnnotations.TokenEndAnnotation.class) - tokenStart);
+                }
+            }
+            tokens.addAll(sentenceTokens);
+            sentence.set(CoreAnnotations.SentenceIndexAnnotation.class, i);
+            sentence.set(CoreAnnotations.CharacterOffsetBeginAnnotation.class,
+                    sentence.get(CoreAnnotations.CharacterOffsetBeginAnnotation.class) - charStart);
+            sentence.set(CoreAnnotations.CharacterOffsetEndAnnotation.class,
+                    sentence.get(CoreAnnotations.CharacterOffsetEndAnnotation.class) - charStart);
+            sentence.set(CoreAnnotations.TokenBeginAnnotation.class,
+                    sentence.get(CoreAnnotations.TokenBeginAnnotation.class) - tokenStart);
+            sentence.set(CoreAnnotations.TokenEndAnnotation.class,
+                    sentence.get(CoreAnnotations.TokenEndAnnotation.class) - tokenStart);
+            // graph vertices may wrap their own copies of the tokens, so take their offsets from the tokens
+            for (Class<? extends edu.stanford.nlp.util.TypesafeMap.Key<SemanticGraph>> key : ParserWorker.GRAPHS) {
+                SemanticGraph graph = sentence.get(key);
+                if (graph != null) {
+                    for (IndexedWord word : graph.vertexSet()) {
+                        CoreLabel token = sentenceTokens.get(word.index() - 1);
+                        word.setBeginPosition(token.beginPosition());
+                        word.setEndPosition(token.endPosition());
+                        word.setSentIndex(i);
+                    }
+                }
+            }
+        }
+        document.set(CoreAnnotations.TokensAnnotation.class, tokens);
+        document.set(CoreAnnotations.SentencesAnnotation.class, sentences);
+    }
+
+    /**
+     * Post one document to the server and return what it sent back.
+     */
+    private Annotation send(Annotation document, Properties props) throws IOException, InterruptedException {
+        ProtobufAnnotationSerializer serializer = new ProtobufAnnotationSerializer(false);
+        URL requestUrl = new URL(this.url, "/?properties="
+                + URLEncoder.encode(requestProperties(props), StandardCharsets.UTF_8.name()));
+        this.inFlight.acquire();
+        try {
+            HttpURLConnection connection = (HttpURLConnection) requestUrl.openConnection();
+            connection.setConnectTimeout(this.connectTimeoutMillis);
+            connection.setReadTimeout(this.readTimeoutMillis);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/x-protobuf");
+            try (OutputStream out = new BufferedOutputStream(connection.getOutputStream())) {
+                serializer.write(document, out);
+            }
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("CoreNLP server answered " + status + ": " + readError(connection));
+            }
+            // reading the body to the end and closing it, rather than disconnecting, keeps the connection alive
+            try (InputStream in = new BufferedInputStream(connection.getInputStream())) {
+                Annotation response = serializer.read(in).first;
+                while (in.read() != -1) {
+                    // drain
+                }
+                return response;
+            } catch (ClassNotFoundException | ClassCastException e) {
+                throw new IOException("Could not read the CoreNLP server response", e);
+            }
+        } finally {
+            this.requests.incrementAndGet();
+            this.inFlight.release();
+        }
+    }
+
+    /**
+     * The pipeline properties as the JSON the server expects, with protobuf in and out.
+     */
+    static String requestProperties(Properties props) {
+        Map<String, String> request = new TreeMap<>();
+        for (String name : props.stringPropertyNames()) {
+            if (!name.startsWith("parserWorkers.")) {
+                request.put(name, props.getProperty(name));
+            }
+        }
+        // the annotators before the first one we ask for already ran on our side
+        request.put("enforceRequirements", "false");
+        request.put("inputFormat", "serialized");
+        request.put("inputSerializer", ProtobufAnnotationSerializer.class.getName());
+        request.put("outputFormat", "serialized");
+        request.put("serializer", ProtobufAnnotationSerializer.class.getName());
+        StringBuilder json = new StringBuilder("{");
+        for (Map.Entry<String, String> entry : request.entrySet()) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append(quote(entry.getKey())).append(':').append(quote(entry.getValue()));
+        }
+        return json.append('}').toString();
+    }
+
+    static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    private static String readError(HttpURLConnection connection) throws IOException {
+        InputStream error = connection.getErrorStream();
+        if (error == null) {
+            return connection.getResponseMessage();
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(error, StandardCharsets.UTF_8))) {
+            StringBuilder message = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                message.append(line).append(' ');
+            }
+            return message.toString().trim();
+        }
+    }
+
+    private static void copy(Annotation response, Annotation document) {
+        for (Class<?> key : response.keySet()) {
+            if (key != CoreAnnotations.TextAnnotation.class) {
+                copy(key, response, document);
+            }
+        }
+    }
+
+    /**
+     * Copy the value of one key; the keys of a CoreMap are only known as classes, so the value type is assumed.
+     */
+    @SuppressWarnings("unchecked")
+    private static <V> void copy(Class<?> key, Annotation response, Annotation document) {
+        Class<? extends TypesafeMap.Key<V>> typed = (Class<? extends TypesafeMap.Key<V>>) key;
+        document.set(typed, response.get(typed));
+    }
+
+    /** The number of requests sent to the server. */
+    public long getRequests() {
+        return this.requests.get();
+    }
+
+    /** The number of documents annotated by the server. */
+    public long getDocuments() {
+        return this.documents.get();
+    }
+
+    /**
+     * Documents waiting to be sent together.
+     */
+    private static class Batch {
+        private final Properties props;
+        private final List<Annotation> documents = new ArrayList<>();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private int chars;
+        private volatile Exception failure;
+
+        private Batch(Properties props) {
+            this.props = props;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package ca.concordia.gate;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.pipeline.CoreDocument;
+import edu.stanford.nlp.pipeline.CoreSentence;
+import gate.*;
+import gate.creole.AbstractLanguageAnalyser;
+import gate.creole.ExecutionException;
+import gate.creole.ResourceInstantiationException;
+import gate.creole.metadata.CreoleParameter;
+import gate.creole.metadata.CreoleResource;
+import gate.creole.metadata.Optional;
+import gate.creole.metadata.RunTime;
+import gate.util.GateRuntimeException;
+import gate.util.InvalidOffsetException;
+
+import java.util.*;
+
+/**
+ * This plugin tokenizes and sentence splits the document in a single CoreNLP pass, generating
+ * "Token" and "Sentence" annotations. The output is the same as running CoreTokenizer followed by
+ * CoreSentenceSplitter, but the text is only tokenized once and the splitter works directly on the
+ * CoreLabels produced by the tokenizer.
+ */
+@CreoleResource(name = "CoreSegmenter", comment = "Run CoreNLP tokenizer and sentence splitter in one pass")
+public class CoreSegmenter extends AbstractLanguageAnalyser implements ProcessingResource {
+    private String language;
+
+    @Override
+    public void reInit() throws ResourceInstantiationException {
+        init();
+    }
+
+    /**
+     * Initialise this resource, and return it.
+     */
+    @Override
+    public Resource init() throws ResourceInstantiationException {
+        return super.init();
+    }
+
+    public void execute() throws ExecutionException {
+        if (this.document == null) throw new GateRuntimeException("No document to process!");
+        DocumentAnnotateEvent event = DocumentAnnotateEvent.begin(this, this.document);
+        try {
+            annotateDocument();
+            event.succeeded();
+        } finally {
+            event.finish();
+        }
+    }
+
+    private void annotateDocument() throws ExecutionException {
+        AnnotationSet outputAS = this.document.getAnnotations();
+        Properties coreNlpProps = PipelineProfile.load(language);
+        coreNlpProps.setProperty("annotators", "tokenize,ssplit");
+        String text = AnnotationHandoff.text(this.document);
+        edu.stanford.nlp.pipeline.Annotation annotation = new edu.stanford.nlp.pipeline.Annotation(text);
+        try (StagedPipeline.Lease pipeline = StagedPipeline.get(coreNlpProps)) {
+            pipeline.annotate(annotation, this.document.getName());
+        }
+        CoreDocument document = new CoreDocument(annotation);
+        PipelineStats stats = PipelineStats.get();
+        long conversionStart = stats.start();
+        GateConversionEvent conversion = GateConversionEvent.begin(this, this.document);
+        // Tokens are added before sentences so that annotation IDs line up with the
+        // CoreTokenizer -> CoreSentenceSplitter chain. The tokenizer's own labels are handed
+        // over, trimmed to the keys of a rebuilt one.
+        List<CoreLabel> tokenLabelList = new ArrayList<>();
+        Map<Long, Integer> tokenIds = new HashMap<>();
+        for (CoreLabel token : document.tokens()) {
+            FeatureMap tokenFeatures = Factory.newFeatureMap();
+            tokenFeatures.put("string", token.word());
+            try {
+                Integer tokenId = outputAS.add((long) token.beginPosition(), (long) token.endPosition(),
+                        "Token", tokenFeatures);
+                tokenLabelList.add(AnnotationHandoff.reuseTokenLabel(token));
+                tokenIds.put((long) token.beginPosition(), tokenId);
+            } catch (InvalidOffsetException e) {
+                e.printStackTrace();
+            }
+        }
+        for (CoreSentence sentence : document.sentences()) {
+            List<CoreLabel> sentenceTokens = sentence.tokens();
+            int sentenceStartIndex = sentenceTokens.get(0).beginPosition();
+            int sentenceEndIndex = sentenceTokens.get(sentenceTokens.size() - 1).endPosition();
+            try {
+                outputAS.add((long) sentenceStartIndex, (long) sentenceEndIndex,
+                        "Sentence", Factory.newFeatureMap());
+            } catch (InvalidOffsetException e) {
+                e.printStackTrace();
+            }
+        }
+        edu.stanford.nlp.pipeline.Annotation handoff = new edu.stanford.nlp.pipeline.Annotation(text);
+        handoff.set(CoreAnnotations.TokensAnnotation.class, tokenLabelList);
+        AnnotationHandoff.put(this.document, handoff, tokenIds);
+        stats.stop(PipelineStats.GATE_CONVERSION, conversionStart);
+        conversion.finish(document.sentences().size(), tokenLabelList.size());
+        stats.addDocument(this.document);
+        stats.addSentences(document.sentences().size());
+        stats.addTokens(tokenLabelList.size());
+    }
+
+    @RunTime
+    @Optional
+    @CreoleParameter(comment = "The language of the input text", defaultValue = "english")
+    public void setLanguage(String language) {
+        this.language = language;
+    }
+
+    public String getLanguage() {
+        return this.language;
+    }
+}
@@ -5,7 +5,6 @@ import edu.stanford.nlp.ling.CoreLabel;
 import edu.stanford.nlp.ling.IndexedWord;
 import edu.stanford.nlp.pipeline.CoreDocument;
 import edu.stanford.nlp.pipeline.CoreSentence;
-import edu.stanford.nlp.pipeline.StanfordCoreNLP;
 import edu.stanford.nlp.semgraph.SemanticGraph;
 import edu.stanford.nlp.semgraph.SemanticGraphCoreAnnotations;
 import edu.stanford.nlp.semgraph.SemanticGraphEdge;
@@ -46,31 +45,39 @@ public class CoreSentenceSplitter extends AbstractLanguageAnalyser implements Pr
 
     public void execute() throws ExecutionException {
         if (this.document == null) throw new GateRuntimeException("No document to process!");
-        System.out.println("document name:" + this.document.getName());
-        System.out.println("document size" + this.document.getContent().size());
-        System.out.println("Language:" + this.language);
-        AnnotationSet outputAS = this.document.getAnnotations();
-        Properties coreNlpProps = new Properties();
-        if (language.equals("spanish")) {
-            coreNlpProps.setProperty("tokenize.language","es");
-            coreNlpProps.setProperty("pos.model","edu/stanford/nlp/models/pos-tagger/spanish-ud.tagger");
-            coreNlpProps.setProperty("ner.model","edu/stanford/nlp/models/ner/spanish.ancora.distsim.s512.crf.ser.gz");
-            coreNlpProps.setProperty("ner.applyNumericClassifiers","true");
-            coreNlpProps.setProperty("ner.useSUTime","true");
-            coreNlpProps.setProperty("ner.language","es");
-            coreNlpProps.setProperty("sutime.language","spanish");
-            coreNlpProps.setProperty("parse.model","edu/stanford/nlp/models/srparser/spanishSR.beam.ser.gz");
-            coreNlpProps.setProperty("depparse.model","edu/stanford/nlp/models/parser/nndep/UD_Spanish.gz");
-            coreNlpProps.setProperty("depparse.language", "spanish");
+        DocumentAnnotateEvent event = DocumentAnnotateEvent.begin(this, this.document);
+        try {
+            annotateDocument();
+            event.succeeded();
+        } finally {
+            event.finish();
         }
+    }
+
+    private void annotateDocument() throws ExecutionException {
+        AnnotationSet outputAS = this.document.getAnnotations();
+        Properties coreNlpProps = PipelineProfile.load(language);
 
-        edu.stanford.nlp.pipeline.Annotation document = new edu.stanford.nlp.pipeline.Annotation(this.document.getContent().toString());
-        addTokens(document);
+        edu.stanford.nlp.pipeline.Annotation document;
+        Map<Long, Integer> tokenIds;
+        AnnotationHandoff.Entry handoff = AnnotationHandoff.get(this.document);
+        if (handoff != null) {
+            // the tokenizer already built the CoreLabels for the current Token annotations
+            document = handoff.getAnnotation();
+            tokenIds = handoff.getTokenIds();
+        } else {
+            document = new edu.stanford.nlp.pipeline.Annotation(AnnotationHandoff.text(this.document));
+            tokenIds = addTokens(document);
+        }
         // we don't tokenize
         coreNlpProps.setProperty("annotators", "ssplit");
-        StanfordCoreNLP pipeline = new StanfordCoreNLP(coreNlpProps, false);
-        pipeline.annotate(document);
+        try (StagedPipeline.Lease pipeline = StagedPipeline.get(coreNlpProps)) {
+            pipeline.annotate(document, this.document.getName());
+        }
         CoreDocument coreDocument = new CoreDocument(document);
+        PipelineStats stats = PipelineStats.get();
+        long conversionStart = stats.start();
+        GateConversionEvent conversion = GateConversionEvent.begin(this, this.document);
         for (CoreSentence sentence : coreDocument.sentences()) {
             // First, add the sentence
             int sentenceStartIndex = sentence.tokens().get(0).beginPosition();
@@ -82,31 +89,31 @@ public class CoreSentenceSplitter extends AbstractLanguageAnalyser implements Pr
                 e.printStackTrace();
             }
         }
+        AnnotationHandoff.put(this.document, document, tokenIds);
+        stats.stop(PipelineStats.GATE_CONVERSION, conversionStart);
+        conversion.finish(coreDocument.sentences().size(), tokenIds.size());
+        stats.addDocument(this.document);
+        stats.addSentences(coreDocument.sentences().size());
     }
 
-    private void addTokens(edu.stanford.nlp.pipeline.Annotation document) {
+    private Map<Long, Integer> addTokens(edu.stanford.nlp.pipeline.Annotation document) {
         List<CoreLabel> tokenLabelList = new ArrayList<>();
+        Map<Long, Integer> tokenIds = new HashMap<>();
         for (Annotation ano : this.document.getAnnotations()) {
             // filter for tokens
             if (ano.getType().equals("Token")) {
                 String tokenString = (String)ano.getFeatures().get("string");
-                CoreLabel tokenLabel = CoreLabel.wordFromString(tokenString);
-                tokenLabel.set(CoreAnnotations.CharacterOffsetBeginAnnotation.class,
-                        Math.toIntExact(ano.getStartNode().getOffset()));
-                tokenLabel.set(CoreAnnotations.CharacterOffsetEndAnnotation.class,
-                        Math.toIntExact(ano.getEndNode().getOffset()));
-                tokenLabel.set(CoreAnnotations.TextAnnotation.class, tokenString);
-                tokenLabel.set(CoreAnnotations.IsNewlineAnnotation.class, false);
-                tokenLabel.set(CoreAnnotations.ValueAnnotation.class, tokenString);
+                CoreLabel tokenLabel = AnnotationHandoff.tokenLabel(tokenString,
+                        ano.getStartNode().getOffset(), ano.getEndNode().getOffset());
                 tokenLabelList.add(tokenLabel);
-                System.out.println("Generated Token: " + tokenString + " (" +
-                        ano.getStartNode().getOffset()+ "," + ano.getEndNode().getOffset() + ")");
+                tokenIds.put(ano.getStartNode().getOffset(), ano.getId());
             }
         }
         tokenLabelList = tokenLabelList.stream().sorted(Comparator
                         .comparingInt(o -> o.get(CoreAnnotations.CharacterOffsetBeginAnnotation.class)))
                 .collect(Collectors.toList());
         document.set(CoreAnnotations.TokensAnnotation.class, tokenLabelList);
+        return tokenIds;
     }
 
     @RunTime
@@ -46,31 +46,53 @@ public class CoreTokenizer extends AbstractLanguageAnalyser implements Processin
 
     public void execute() throws ExecutionException {
         if (this.document == null) throw new GateRuntimeException("No document to process!");
-        System.out.println("document name:" + this.document.getName());
-        System.out.println("document size" + this.document.getContent().size());
-        System.out.println("Language:" + this.language);
-        AnnotationSet outputAS = this.document.getAnnotations();
-        Properties coreNlpProps = new Properties();
-        if (language.equals("spanish")) {
-            System.out.println("using spanish");
-            coreNlpProps.setProperty("tokenize.language", "es");
+        DocumentAnnotateEvent event = DocumentAnnotateEvent.begin(this, this.document);
+        try {
+            annotateDocument();
+            event.succeeded();
+        } finally {
+            event.finish();
         }
+    }
+
+    private void annotateDocument() throws ExecutionException {
+        AnnotationSet outputAS = this.document.getAnnotations();
+        Properties coreNlpProps = PipelineProfile.load(language);
         coreNlpProps.setProperty("annotators", "tokenize");
-        StanfordCoreNLP pipeline = new StanfordCoreNLP(coreNlpProps);
-        CoreDocument document = new CoreDocument(this.document.getContent().toString());
-        pipeline.annotate(document);
-        for (CoreLabel token : document.tokens()) {
+        String text = AnnotationHandoff.text(this.document);
+        edu.stanford.nlp.pipeline.Annotation document = new edu.stanford.nlp.pipeline.Annotation(text);
+        try (StagedPipeline.Lease pipeline = StagedPipeline.get(coreNlpProps)) {
+            pipeline.annotate(document, this.document.getName());
+        }
+        PipelineStats stats = PipelineStats.get();
+        long conversionStart = stats.start();
+        GateConversionEvent conversion = GateConversionEvent.begin(this, this.document);
+        // Hand the tokens over to the next PR of the plugin, so it doesn't have to
+        // rebuild them from the GATE annotations.
+        List<CoreLabel> tokenLabelList = new ArrayList<>();
+        Map<Long, Integer> tokenIds = new HashMap<>();
+        List<CoreLabel> tokens = document.get(CoreAnnotations.TokensAnnotation.class);
+        for (CoreLabel token : tokens) {
             int tokenStartIndex = token.beginPosition();
             int tokenEndIndex = token.endPosition();
             FeatureMap tokenFeatures = Factory.newFeatureMap();
             tokenFeatures.put("string",token.word());
             try {
-                outputAS.add((long) tokenStartIndex, (long) tokenEndIndex,
+                Integer tokenId = outputAS.add((long) tokenStartIndex, (long) tokenEndIndex,
                         "Token", tokenFeatures);
+                tokenLabelList.add(AnnotationHandoff.tokenLabel(token.word(), tokenStartIndex, tokenEndIndex));
+                tokenIds.put((long) tokenStartIndex, tokenId);
             } catch (InvalidOffsetException e) {
                 e.printStackTrace();
             }
         }
+        edu.stanford.nlp.pipeline.Annotation handoff = new edu.stanford.nlp.pipeline.Annotation(text);
+        handoff.set(CoreAnnotations.TokensAnnotation.class, tokenLabelList);
+        AnnotationHandoff.put(this.document, handoff, tokenIds);
+        stats.stop(PipelineStats.GATE_CONVERSION, conversionStart);
+        conversion.finish(0, tokens.size());
+        stats.addDocument(this.document);
+        stats.addTokens(tokens.size());
     }
 
     @RunTime
@@ -34,8 +34,18 @@ public class DependencyNodeGenerator extends AbstractLanguageAnalyser {
     public void execute() throws ExecutionException {
         if(this.document == null)
             throw new GateRuntimeException("No document to process!");
-        System.out.println("document name :" + this.document.getName());
-        System.out.println("no of annotations : " + this.document.getAnnotations().size());
+        DocumentAnnotateEvent event = DocumentAnnotateEvent.begin(this, this.document);
+        try {
+            generateNodes();
+            event.succeeded();
+        } finally {
+            event.finish();
+        }
+    }
+
+    private void generateNodes() {
+        PipelineStats stats = PipelineStats.get();
+        long start = stats.start();
         // Map to prepare dependency node information. We have one dependency node per token.
         Map<Integer, FeatureMap> tokenToDepNode = new HashMap<>();
         // Make sure that each generated DependencyTreeNode will have a unique ID.
@@ -103,9 +113,8 @@ public class DependencyNodeGenerator extends AbstractLanguageAnalyser {
                 } catch (Exception e) {
                     e.printStackTrace();
                 }
-            } else {
-                System.out.println("we found null");
             }
         }
+        stats.stop(PipelineStats.DEPENDENCY_NODES, start);
     }
 }
@@ -739,11 +739,12 @@ public class DependencyTreeViewer extends AbstractVisualResource
       Long tokenBegin = tokenAnnot.getStartNode().getOffset();
       Long tokenEnd = tokenAnnot.getEndNode().getOffset();
 
+      // the tokens lie within the utterance, so their text is cut from it
       String tokenText = "";
       try {
-        tokenText = document.getContent().getContent(
-                tokenBegin, tokenEnd).toString();
-      } catch (InvalidOffsetException ioe) {
+        tokenText = displayedString.substring(
+                (int) (tokenBegin - utteranceStartOffset), (int) (tokenEnd - utteranceStartOffset));
+      } catch (IndexOutOfBoundsException ioe) {
         ioe.printStackTrace(Err.getPrintWriter());
       }
 
@@ -0,0 +1,57 @@
+package ca.concordia.gate;
+
+import gate.Document;
+import gate.Resource;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event covering one run of a processing resource of the plugin over one document.
+ */
+@Name("ca.concordia.gate.DocumentAnnotate")
+@Label("Document Annotate")
+@Category({"GATE", "CoreNLP"})
+@Description("A processing resource of the CoreNLP plugin annotating one document")
+public class DocumentAnnotateEvent extends Event {
+    @Label("Document")
+    public String documentName;
+
+    @Label("Processing Resource")
+    public String processingResource;
+
+    @Label("Document Length")
+    @Description("Length of the document text, in characters")
+    public long documentLength;
+
+    @Label("Outcome")
+    public String outcome = "failed";
+
+    /**
+     * Create the event and start timing it.
+     */
+    public static DocumentAnnotateEvent begin(Resource pr, Document document) {
+        DocumentAnnotateEvent event = new DocumentAnnotateEvent();
+        if (event.isEnabled()) {
+            event.documentName = document.getName();
+            event.processingResource = pr.getClass().getSimpleName();
+            event.documentLength = document.getContent().size();
+        }
+        event.begin();
+        return event;
+    }
+
+    public void succeeded() {
+        this.outcome = "ok";
+    }
+
+    /**
+     * Stop timing and commit the event. The outcome stays "failed" unless succeeded() was called.
+     */
+    public void finish() {
+        end();
+        commit();
+    }
+}
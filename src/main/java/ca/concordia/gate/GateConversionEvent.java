@@ -0,0 +1,55 @@
+package ca.concordia.gate;
+
+import gate.Document;
+import gate.Resource;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event covering the conversion of CoreNLP output into GATE annotations for one document.
+ */
+@Name("ca.concordia.gate.GateConversion")
+@Label("GATE Conversion")
+@Category({"GATE", "CoreNLP"})
+@Description("Turning CoreNLP output into GATE annotations")
+public class GateConversionEvent extends Event {
+    @Label("Document")
+    public String documentName;
+
+    @Label("Processing Resource")
+    public String processingResource;
+
+    @Label("Sentences")
+    public int sentences;
+
+    @Label("Tokens")
+    public int tokens;
+
+    /**
+     * Create the event and start timing it.
+     */
+    public static GateConversionEvent begin(Resource pr, Document document) {
+        GateConversionEvent event = new GateConversionEvent();
+        if (event.isEnabled()) {
+            event.documentName = document.getName();
+            event.processingResource = pr.getClass().getSimpleName();
+        }
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Stop timing and commit the event.
+     */
+    public void finish(int sentences, int tokens) {
+        end();
+        if (shouldCommit()) {
+            this.sentences = sentences;
+            this.tokens = tokens;
+            commit();
+        }
+    }
+}
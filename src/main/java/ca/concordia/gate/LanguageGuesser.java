@@ -0,0 +1,84 @@
+package ca.concordia.gate;
+
+import java.util.*;
+
+/**
+ * A fast guess of the language of a text among the languages the plugin has models for, from the character
+ * trigrams most typical of each language.
+ * <p>
+ * The start of the text is lowercased, everything but letters becomes a space, and each language scores the
+ * share of the text's trigrams that are among its typical ones. That is enough to tell English from Spanish on
+ * a sentence or two; texts too short or unlike either get the first candidate.
+ */
+public class LanguageGuesser {
+    /** Only the start of the text is looked at. */
+    static final int MAX_CHARS = 4000;
+
+    private static final Map<String, Set<String>> trigrams = new HashMap<>();
+    private static final Map<String, String> codes = new HashMap<>();
+
+    static {
+        // the most frequent trigrams of each language that are rare in the other, spaces marking word edges
+        trigrams.put("english", new HashSet<>(Arrays.asList(
+                " th", "the", "he ", "and", " an", "nd ", "ing", "ng ", " of", "of ", "ed ", " to", "to ", "hat",
+                "tha", "at ", "for", " fo", " wa", "was", "her", "ion", "tio", " is", "is ", "ith", "wit", " wi",
+                "ly ", " be", "ere", "thi", "his", " hi", "ave", "hav", "you", " yo", "ou ", "ch ")));
+        trigrams.put("spanish", new HashSet<>(Arrays.asList(
+                " de", "de ", "os ", " la", "la ", "el ", " el", "que", " qu", "ue ", "i\u00f3n", "ci\u00f3", "as ", " en",
+                "en ", "ado", " co", "con", "es ", "ara", "par", " pa", "los", " lo", "nte", "una", " un", "del",
+                " se", "aci", "ien", "ent", "ada", " po", "por", "or ", "\u00eda ", " y ", "est", "las")));
+        codes.put("en", "english");
+        codes.put("es", "spanish");
+    }
+
+    private LanguageGuesser() {
+    }
+
+    /**
+     * The language of the given name or ISO 639-1 code, e.g. "es" or "Spanish" for "spanish".
+     */
+    public static String normalize(String language) {
+        String name = language.trim().toLowerCase(Locale.ROOT);
+        return codes.getOrDefault(name, name);
+    }
+
+    /**
+     * The most likely of the candidate languages for the text, or the first candidate if none of them scores.
+     */
+    public static String guess(CharSequence text, List<String> candidates) {
+        int length = Math.min(text.length(), MAX_CHARS);
+        char[] chars = new char[length + 2];
+        chars[0] = ' ';
+        for (int i = 0; i < length; i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            chars[i + 1] = Character.isLetter(c) ? c : ' ';
+        }
+        chars[length + 1] = ' ';
+        Map<String, Integer> scores = new HashMap<>();
+        int total = 0;
+        for (int i = 0; i + 3 <= chars.length; i++) {
+            if (chars[i + 1] == ' ') {
+                // no trigram of a word is centred on a space
+                continue;
+            }
+            String trigram = new String(chars, i, 3);
+            total++;
+            for (String candidate : candidates) {
+                Set<String> typical = trigrams.get(candidate);
+                if (typical != null && typical.contains(trigram)) {
+                    scores.merge(candidate, 1, Integer::sum);
+                }
+            }
+        }
+        String best = candidates.get(0);
+        int bestScore = 0;
+        for (String candidate : candidates) {
+            int score = scores.getOrDefault(candidate, 0);
+            if (score > bestScore) {
+                best = candidate;
+                bestScore = score;
+            }
+        }
+        return total == 0 ? candidates.get(0) : best;
+    }
+}
@@ -0,0 +1,20 @@
+package ca.concordia.gate;
+
+/**
+ * JMX view of a {@link LatencyHistogram}. All latencies are reported in milliseconds.
+ */
+public interface LatencyHistogramMBean {
+    long getCount();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP95Millis();
+
+    double getP99Millis();
+
+    double getMaxMillis();
+
+    void reset();
+}
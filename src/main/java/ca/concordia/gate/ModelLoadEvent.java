@@ -0,0 +1,25 @@
+package ca.concordia.gate;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event covering the construction of a CoreNLP pipeline, which loads the models it needs.
+ */
+@Name("ca.concordia.gate.ModelLoad")
+@Label("Model Load")
+@Category({"GATE", "CoreNLP"})
+@Description("Building a CoreNLP pipeline and loading its models")
+public class ModelLoadEvent extends Event {
+    @Label("Annotators")
+    public String annotators;
+
+    @Label("Parser")
+    public String parser;
+
+    @Label("Outcome")
+    public String outcome = "failed";
+}
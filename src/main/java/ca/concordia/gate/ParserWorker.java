@@ -0,0 +1,183 @@
+package ca.concordia.gate;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.ling.IndexedWord;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.StanfordCoreNLP;
+import edu.stanford.nlp.semgraph.SemanticGraph;
+import edu.stanford.nlp.semgraph.SemanticGraphEdge;
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.trees.TreeCoreAnnotations;
+import edu.stanford.nlp.util.ArrayCoreMap;
+import edu.stanford.nlp.util.CoreMap;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * The child process of a {@link ParserWorkerPool}: runs one parse or depparse annotator on the sentences its
+ * parent sends over stdin, and writes the trees and dependency graphs back over stdout.
+ * <p>
+ * The protocol is a compact binary one, written with DataOutputStream:
+ * <ul>
+ *   <li>handshake, parent to worker: int n, then n pairs of UTF key and value, the CoreNLP properties of the
+ *       annotator. The worker loads the model and answers OK or ERROR.</li>
+ *   <li>request: byte SENTENCE, int token count, then UTF word and UTF POS tag ("" for none) per token;
+ *       or byte QUIT.</li>
+ *   <li>response: byte ERROR and a UTF message, or byte OK, a tree and {@link #GRAPHS} graphs. A tree is
+ *       byte 0 for none, or byte 1 followed by its nodes in pre-order as UTF label and short child count.
+ *       A graph is byte 0 for none, or byte 1, the vertices, the roots and the edges: int count, then per
+ *       vertex or root int index and int copy count, then int count and per edge the governor and dependent
+ *       as index and copy count, UTF relation and boolean extra.</li>
+ * </ul>
+ * Nothing but the protocol may go to stdout, so System.out is pointed at stderr. The worker exits when its
+ * parent closes stdin, so it never outlives it.
+ */
+public class ParserWorker {
+
+    static final byte OK = 0;
+    static final byte ERROR = 1;
+    static final byte SENTENCE = 2;
+    static final byte QUIT = 3;
+
+    /** The dependency graphs sent back, in protocol order. */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static final Class<? extends edu.stanford.nlp.util.TypesafeMap.Key<SemanticGraph>>[] GRAPHS = new Class[]{
+            edu.stanford.nlp.semgraph.SemanticGraphCoreAnnotations.BasicDependenciesAnnotation.class,
+            edu.stanford.nlp.semgraph.SemanticGraphCoreAnnotations.EnhancedDependenciesAnnotation.class,
+            edu.stanford.nlp.semgraph.SemanticGraphCoreAnnotations.EnhancedPlusPlusDependenciesAnnotation.class
+    };
+
+    public static void main(String[] args) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(FileDescriptor.in)));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        System.setOut(System.err);
+
+        StanfordCoreNLP annotator;
+        try {
+            Properties props = new Properties();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                props.setProperty(in.readUTF(), in.readUTF());
+            }
+            annotator = new StanfordCoreNLP(props, false);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            out.writeByte(ERROR);
+            out.writeUTF(String.valueOf(e));
+            out.flush();
+            return;
+        }
+        out.writeByte(OK);
+        out.flush();
+
+        while (true) {
+            byte request;
+            try {
+                request = in.readByte();
+            } catch (EOFException e) {
+                return;
+            }
+            if (request == QUIT) {
+                return;
+            }
+            List<String[]> tokens = new ArrayList<>();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                tokens.add(new String[]{in.readUTF(), in.readUTF()});
+            }
+            CoreMap sentence;
+            try {
+                sentence = annotate(annotator, tokens);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                out.writeByte(ERROR);
+                out.writeUTF(String.valueOf(e));
+                out.flush();
+                continue;
+            }
+            out.writeByte(OK);
+            writeTree(out, sentence.get(TreeCoreAnnotations.TreeAnnotation.class));
+            for (Class<? extends edu.stanford.nlp.util.TypesafeMap.Key<SemanticGraph>> graph : GRAPHS) {
+                writeGraph(out, sentence.get(graph));
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Rebuild the sentence as a one-sentence document and run the annotator on it.
+     */
+    private static CoreMap annotate(StanfordCoreNLP annotator, List<String[]> words) {
+        StringBuilder text = new StringBuilder();
+        List<CoreLabel> tokens = new ArrayList<>();
+        for (int i = 0; i < words.size(); i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            int start = text.length();
+            text.append(words.get(i)[0]);
+            CoreLabel token = AnnotationHandoff.tokenLabel(words.get(i)[0], start, text.length());
+            token.setIndex(i + 1);
+            token.setSentIndex(0);
+            if (!words.get(i)[1].isEmpty()) {
+                token.setTag(words.get(i)[1]);
+            }
+            tokens.add(token);
+        }
+        CoreMap sentence = new ArrayCoreMap();
+        sentence.set(CoreAnnotations.TextAnnotation.class, text.toString());
+        sentence.set(CoreAnnotations.TokensAnnotation.class, tokens);
+        sentence.set(CoreAnnotations.SentenceIndexAnnotation.class, 0);
+        sentence.set(CoreAnnotations.TokenBeginAnnotation.class, 0);
+        sentence.set(CoreAnnotations.TokenEndAnnotation.class, tokens.size());
+        sentence.set(CoreAnnotations.CharacterOffsetBeginAnnotation.class, 0);
+        sentence.set(CoreAnnotations.CharacterOffsetEndAnnotation.class, text.length());
+        Annotation document = new Annotation(text.toString());
+        document.set(CoreAnnotations.TokensAnnotation.class, tokens);
+        document.set(CoreAnnotations.SentencesAnnotation.class, Collections.singletonList(sentence));
+        annotator.annotate(document);
+        return sentence;
+    }
+
+    static void writeTree(DataOutputStream out, Tree tree) throws IOException {
+        if (tree == null) {
+            out.writeByte(0);
+            return;
+        }
+        out.writeByte(1);
+        for (Tree node : tree.preOrderNodeList()) {
+            out.writeUTF(node.label().value());
+            out.writeShort(node.numChildren());
+        }
+    }
+
+    static void writeGraph(DataOutputStream out, SemanticGraph graph) throws IOException {
+        if (graph == null) {
+            out.writeByte(0);
+            return;
+        }
+        out.writeByte(1);
+        out.writeInt(graph.size());
+        for (IndexedWord vertex : graph.vertexSet()) {
+            writeWord(out, vertex);
+        }
+        out.writeInt(graph.getRoots().size());
+        for (IndexedWord root : graph.getRoots()) {
+            writeWord(out, root);
+        }
+        out.writeInt(graph.edgeCount());
+        for (SemanticGraphEdge edge : graph.edgeIterable()) {
+            writeWord(out, edge.getGovernor());
+            writeWord(out, edge.getDependent());
+            out.writeUTF(edge.getRelation().toString());
+            out.writeBoolean(edge.isExtra());
+        }
+    }
+
+    private static void writeWord(DataOutputStream out, IndexedWord word) throws IOException {
+        out.writeInt(word.index());
+        out.writeInt(word.copyCount());
+    }
+}
@@ -0,0 +1,387 @@
+package ca.concordia.gate;
+
+import edu.stanford.nlp.international.Language;
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.ling.IndexedWord;
+import edu.stanford.nlp.semgraph.SemanticGraph;
+import edu.stanford.nlp.trees.GrammaticalRelation;
+import edu.stanford.nlp.trees.LabeledScoredTreeNode;
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.trees.TreeCoreAnnotations;
+import edu.stanford.nlp.util.CoreMap;
+import gate.util.GateRuntimeException;
+
+import java.io.*;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a parse or depparse stage in child JVMs, so that the large short-lived charts of long sentences are
+ * allocated, and collected, outside the host's heap.
+ * <p>
+ * Each worker is a {@link ParserWorker} process with its own maximum heap that exits on OutOfMemoryError.
+ * Sentences go to whichever worker is free. A worker that dies, or that takes longer than the timeout on a
+ * sentence and is killed, is started again for the next sentence; the sentence it failed on gets a flat tree
+ * or graph instead, as CoreNLP does for sentences over parse.maxlen, so one pathological sentence does not fail
+ * its document. A worker that cannot start, e.g. because its model is missing or does not fit in its heap, would
+ * fail the same way on every sentence, so it fails the document instead, and every later one until the pipeline
+ * is rebuilt.
+ * <p>
+ * A {@link StagedPipeline} uses a pool for its parse and depparse stages when the "parserWorkers.count"
+ * property is set; "parserWorkers.heap" and "parserWorkers.timeout" (milliseconds) set the limits.
+ */
+public class ParserWorkerPool {
+
+    static final String COUNT_PROPERTY = "parserWorkers.count";
+    static final String HEAP_PROPERTY = "parserWorkers.heap";
+    static final String TIMEOUT_PROPERTY = "parserWorkers.timeout";
+
+    /** How long a worker may take to start and load its model. */
+    private static final long STARTUP_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "parser-worker-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final List<Worker> allWorkers = new CopyOnWriteArrayList<>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (Worker worker : allWorkers) {
+                worker.kill();
+            }
+        }, "parser-worker-shutdown"));
+    }
+
+    private final String stage;
+    private final Properties stageProps;
+    private final String heap;
+    private final long timeoutMillis;
+    private final Language language;
+    private final BlockingQueue<Worker> idle = new LinkedBlockingQueue<>();
+    private final Map<String, GrammaticalRelation> relations = new HashMap<>();
+
+    private final AtomicLong sentences = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong restarts = new AtomicLong();
+    private volatile IOException startupFailure;
+
+    /**
+     * @param stage      the annotator, parse or depparse
+     * @param props      the pipeline properties; the annotator's settings are passed on to the workers
+     */
+    public ParserWorkerPool(String stage, Properties props) {
+        this.stage = stage;
+        this.stageProps = new Properties();
+        for (String name : props.stringPropertyNames()) {
+            if (!name.startsWith("parserWorkers.")) {
+                this.stageProps.setProperty(name, props.getProperty(name));
+            }
+        }
+        this.stageProps.setProperty("annotators", stage);
+        this.heap = props.getProperty(HEAP_PROPERTY, "2g");
+        this.timeoutMillis = Long.parseLong(props.getProperty(TIMEOUT_PROPERTY, "60000"));
+        this.language = props.getProperty("depparse.language", "english").equals("english")
+                ? Language.UniversalEnglish : Language.Any;
+        int count = Integer.parseInt(props.getProperty(COUNT_PROPERTY));
+        for (int i = 0; i < count; i++) {
+            // workers are started on first use
+            this.idle.add(new Worker(stage + "-" + i));
+        }
+    }
+
+    /**
+     * True if the properties ask for parse and depparse to run in worker processes.
+     */
+    static boolean isEnabled(Properties props) {
+        return Integer.parseInt(props.getProperty(COUNT_PROPERTY, "0")) > 0;
+    }
+
+    /**
+     * Run the stage on one sentence in a worker and set the results on the sentence. Returns false if the worker
+     * failed and the sentence got a flat fallback result.
+     *
+     * @throws GateRuntimeException if a worker could not start and load its model
+     */
+    public boolean annotate(CoreMap sentence) throws InterruptedException {
+        if (this.startupFailure != null) {
+            throw startupFailure();
+        }
+        this.sentences.incrementAndGet();
+        List<CoreLabel> tokens = sentence.get(CoreAnnotations.TokensAnnotation.class);
+        Worker worker = this.idle.take();
+        try {
+            try {
+                worker.ensureStarted();
+            } catch (IOException e) {
+                // the model did not load, or not within the startup timeout: restarting would not help
+                worker.kill();
+                this.startupFailure = e;
+                throw startupFailure();
+            }
+            worker.send(tokens);
+            if (worker.readResult(sentence, tokens)) {
+                return true;
+            }
+        } catch (IOException e) {
+            // killed by the watchdog, out of memory, or crashed: the next sentence gets a new process
+            System.err.println("Parser worker " + worker.name + " failed on a sentence of " + tokens.size()
+                    + " tokens (" + e + "), restarting it");
+            worker.kill();
+            this.restarts.incrementAndGet();
+        } finally {
+            this.idle.add(worker);
+        }
+        this.failures.incrementAndGet();
+        fallback(sentence, tokens);
+        return false;
+    }
+
+    private GateRuntimeException startupFailure() {
+        return new GateRuntimeException("Parser worker for " + this.stage + " could not start: "
+                + this.startupFailure.getMessage(), this.startupFailure);
+    }
+
+    /**
+     * What CoreNLP gives a sentence it cannot parse: a flat X tree, and a graph with every word attached to the
+     * first one.
+     */
+    private void fallback(CoreMap sentence, List<CoreLabel> tokens) {
+        if (this.stage.equals("parse")) {
+            List<Tree> preterminals = new ArrayList<>();
+            for (CoreLabel token : tokens) {
+                Tree leaf = new LabeledScoredTreeNode(label(token.word()));
+                String tag = token.tag() != null ? token.tag() : "X";
+                preterminals.add(new LabeledScoredTreeNode(label(tag), Collections.singletonList(leaf)));
+            }
+            Tree tree = new LabeledScoredTreeNode(label("ROOT"),
+                    Collections.singletonList(new LabeledScoredTreeNode(label("X"), preterminals)));
+            tree.indexSpans(0);
+            sentence.set(TreeCoreAnnotations.TreeAnnotation.class, tree);
+        } else {
+            SemanticGraph graph = new SemanticGraph();
+            List<IndexedWord> words = new ArrayList<>();
+            for (CoreLabel token : tokens) {
+                IndexedWord word = new IndexedWord(token);
+                words.add(word);
+                graph.addVertex(word);
+            }
+            if (!words.isEmpty()) {
+                graph.setRoot(words.get(0));
+                for (int i = 1; i < words.size(); i++) {
+                    graph.addEdge(words.get(0), words.get(i), relation("dep"), 1.0, false);
+                }
+            }
+            for (Class<? extends edu.stanford.nlp.util.TypesafeMap.Key<SemanticGraph>> key : ParserWorker.GRAPHS) {
+                sentence.set(key, graph);
+            }
+        }
+    }
+
+    private static CoreLabel label(String value) {
+        CoreLabel label = new CoreLabel();
+        label.setValue(value);
+        return label;
+    }
+
+    private GrammaticalRelation relation(String name) {
+        // GrammaticalRelation.valueOf registers unknown relations globally, so it is not called concurrently
+        synchronized (this.relations) {
+            return this.relations.computeIfAbsent(name, n -> GrammaticalRelation.valueOf(this.language, n));
+        }
+    }
+
+    /**
+     * Read a tree written by {@link ParserWorker#writeTree}, after its leading byte.
+     */
+    static Tree readTree(DataInputStream in) throws IOException {
+        String value = in.readUTF();
+        int children = in.readShort();
+        if (children == 0) {
+            return new LabeledScoredTreeNode(label(value));
+        }
+        List<Tree> kids = new ArrayList<>(children);
+        for (int i = 0; i < children; i++) {
+            kids.add(readTree(in));
+        }
+        return new LabeledScoredTreeNode(label(value), kids);
+    }
+
+    /**
+     * Read a graph written by {@link ParserWorker#writeGraph}, after its leading byte, over the given tokens.
+     */
+    SemanticGraph readGraph(DataInputStream in, List<CoreLabel> tokens) throws IOException {
+        SemanticGraph graph = new SemanticGraph();
+        Map<Long, IndexedWord> words = new HashMap<>();
+        int vertices = in.readInt();
+        for (int i = 0; i < vertices; i++) {
+            graph.addVertex(readWord(in, tokens, words));
+        }
+        int roots = in.readInt();
+        List<IndexedWord> rootWords = new ArrayList<>();
+        for (int i = 0; i < roots; i++) {
+            rootWords.add(readWord(in, tokens, words));
+        }
+        graph.setRoots(rootWords);
+        int edges = in.readInt();
+        for (int i = 0; i < edges; i++) {
+            IndexedWord governor = readWord(in, tokens, words);
+            IndexedWord dependent = readWord(in, tokens, words);
+            GrammaticalRelation relation = relation(in.readUTF());
+            graph.addEdge(governor, dependent, relation, 1.0, in.readBoolean());
+        }
+        return graph;
+    }
+
+    /** The word for an index and copy count, made from the host's own token so offsets line up. */
+    private static IndexedWord readWord(DataInputStream in, List<CoreLabel> tokens, Map<Long, IndexedWord> words)
+            throws IOException {
+        int index = in.readInt();
+        int copy = in.readInt();
+        return words.computeIfAbsent(((long) index << 32) | copy, key -> {
+            IndexedWord word = new IndexedWord(tokens.get(index - 1));
+            return copy == 0 ? word : word.makeSoftCopy(copy);
+        });
+    }
+
+    /**
+     * Stop the worker processes of the pool. Only call this while no sentence is being parsed; the next sentence
+     * starts its worker again.
+     */
+    public void close() {
+        for (Worker worker : this.idle) {
+            worker.kill();
+        }
+    }
+
+    public long getSentences() {
+        return this.sentences.get();
+    }
+
+    public long getFailures() {
+        return this.failures.get();
+    }
+
+    public long getRestarts() {
+        return this.restarts.get();
+    }
+
+    /**
+     * The class path of the plugin, which inside GATE is not the JVM's class path but that of the plugin's
+     * class loader.
+     */
+    static String workerClassPath() {
+        LinkedHashSet<String> entries = new LinkedHashSet<>();
+        for (ClassLoader loader = ParserWorker.class.getClassLoader(); loader != null; loader = loader.getParent()) {
+            if (loader instanceof URLClassLoader) {
+                for (URL url : ((URLClassLoader) loader).getURLs()) {
+                    if (url.getProtocol().equals("file")) {
+                        try {
+                            entries.add(new File(url.toURI()).getPath());
+                        } catch (java.net.URISyntaxException e) {
+                            entries.add(url.getPath());
+                        }
+                    }
+                }
+            }
+        }
+        entries.addAll(Arrays.asList(System.getProperty("java.class.path").split(File.pathSeparator)));
+        return String.join(File.pathSeparator, entries);
+    }
+
+    /**
+     * One child process, started lazily and again after it is killed.
+     */
+    private class Worker {
+        private final String name;
+        private Process process;
+        private DataOutputStream out;
+        private DataInputStream in;
+
+        Worker(String name) {
+            this.name = name;
+        }
+
+        void ensureStarted() throws IOException {
+            if (this.process != null && this.process.isAlive()) {
+                return;
+            }
+            kill();
+            List<String> command = Arrays.asList(
+                    new File(System.getProperty("java.home"), "bin/java").getPath(),
+                    "-Xmx" + heap, "-XX:+ExitOnOutOfMemoryError",
+                    "-cp", workerClassPath(), ParserWorker.class.getName());
+            this.process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            allWorkers.add(this);
+            this.out = new DataOutputStream(new BufferedOutputStream(this.process.getOutputStream()));
+            this.in = new DataInputStream(new BufferedInputStream(this.process.getInputStream()));
+            Set<String> names = stageProps.stringPropertyNames();
+            this.out.writeInt(names.size());
+            for (String property : names) {
+                this.out.writeUTF(property);
+                this.out.writeUTF(stageProps.getProperty(property));
+            }
+            this.out.flush();
+            ScheduledFuture<?> deadline = watchdog.schedule(this::kill, STARTUP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            try {
+                if (this.in.readByte() != ParserWorker.OK) {
+                    throw new IOException("Parser worker could not load its model: " + this.in.readUTF());
+                }
+            } catch (EOFException e) {
+                throw new IOException("Parser worker exited, or took over " + STARTUP_TIMEOUT_MILLIS
+                        + " ms, before loading its model", e);
+            } finally {
+                deadline.cancel(false);
+            }
+        }
+
+        void send(List<CoreLabel> tokens) throws IOException {
+            this.out.writeByte(ParserWorker.SENTENCE);
+            this.out.writeInt(tokens.size());
+            for (CoreLabel token : tokens) {
+                this.out.writeUTF(token.word());
+                this.out.writeUTF(token.tag() != null ? token.tag() : "");
+            }
+            this.out.flush();
+        }
+
+        /**
+         * Read the worker's answer onto the sentence; false if the worker reported an error.
+         */
+        boolean readResult(CoreMap sentence, List<CoreLabel> tokens) throws IOException {
+            ScheduledFuture<?> deadline = watchdog.schedule(this::kill, timeoutMillis, TimeUnit.MILLISECONDS);
+            try {
+                if (this.in.readByte() != ParserWorker.OK) {
+                    System.err.println("Parser worker " + this.name + ": " + this.in.readUTF());
+                    return false;
+                }
+                if (this.in.readByte() == 1) {
+                    Tree tree = readTree(this.in);
+                    tree.indexSpans(0);
+                    sentence.set(TreeCoreAnnotations.TreeAnnotation.class, tree);
+                }
+                for (Class<? extends edu.stanford.nlp.util.TypesafeMap.Key<SemanticGraph>> key : ParserWorker.GRAPHS) {
+                    if (this.in.readByte() == 1) {
+                        sentence.set(key, readGraph(this.in, tokens));
+                    }
+                }
+                return true;
+            } finally {
+                deadline.cancel(false);
+            }
+        }
+
+        synchronized void kill() {
+            if (this.process != null) {
+                this.process.destroyForcibly();
+                allWorkers.remove(this);
+                this.process = null;
+            }
+        }
+    }
+}
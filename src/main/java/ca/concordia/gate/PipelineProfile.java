@@ -0,0 +1,118 @@
+package ca.concordia.gate;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The CoreNLP properties for a language and a named speed/accuracy profile, read from the property files under
+ * resources/profiles in the plugin.
+ * <p>
+ * The properties are put together from, in order: LANGUAGE.properties (the models for the language, which
+ * every language but English must have), PROFILE.properties, and LANGUAGE-PROFILE.properties (the profile's settings that differ for the
+ * language). The profiles shipped are fast, balanced (the default, CoreNLP's own settings) and accurate. A
+ * profile can also be given as the path of a properties file, which is then used in place of the last two.
+ */
+public class PipelineProfile {
+    public static final String DEFAULT = "balanced";
+    /** The language of CoreNLP's default models, which needs no language file. */
+    public static final String ENGLISH = "english";
+
+    private static final String RESOURCES = "/resources/profiles/";
+    private static final Map<String, Properties> files = new ConcurrentHashMap<>();
+
+    private PipelineProfile() {
+    }
+
+    /**
+     * The properties for the given language with the default profile.
+     */
+    public static Properties load(String language) {
+        return load(language, DEFAULT);
+    }
+
+    /**
+     * The properties for the given language and profile, which is the name of a built-in profile or the path of
+     * a properties file; null or empty for the default profile.
+     *
+     * @throws IllegalArgumentException if there is no such language or profile
+     */
+    public static Properties load(String language, String profile) {
+        if (profile == null || profile.isEmpty()) {
+            profile = DEFAULT;
+        }
+        String languageFile = RESOURCES + language + ".properties";
+        if (!language.equals(ENGLISH) && PipelineProfile.class.getResource(languageFile) == null) {
+            throw new IllegalArgumentException("Unsupported language: " + language + ", there is no " + languageFile);
+        }
+        Properties props = new Properties();
+        props.putAll(read(languageFile, false));
+        if (profile.endsWith(".properties")) {
+            props.putAll(read(profile, true));
+        } else {
+            props.putAll(read(RESOURCES + profile + ".properties", true));
+            props.putAll(read(RESOURCES + language + "-" + profile + ".properties", false));
+        }
+        return props;
+    }
+
+    /**
+     * Set the given overrides, "name=value" pairs separated by semicolons, on the properties.
+     */
+    public static void override(Properties props, String overrides) {
+        if (overrides == null) {
+            return;
+        }
+        for (String override : overrides.split(";")) {
+            if (override.trim().isEmpty()) {
+                continue;
+            }
+            String[] nameValue = override.split("=", 2);
+            if (nameValue.length != 2) {
+                throw new IllegalArgumentException("Expected name=value in the profile overrides: " + override);
+            }
+            props.setProperty(nameValue[0].trim(), nameValue[1].trim());
+        }
+    }
+
+    /**
+     * Forget the files read so far, so that edited profiles are read again.
+     */
+    static void clearCache() {
+        files.clear();
+    }
+
+    /**
+     * Read a properties file, from the plugin's resources if the name starts with the resources directory and
+     * from the file system otherwise. The files are read once.
+     */
+    private static Properties read(String name, boolean required) {
+        Properties cached = files.get(name);
+        if (cached != null) {
+            return cached;
+        }
+        Properties props = new Properties();
+        try (InputStream in = name.startsWith(RESOURCES) ? PipelineProfile.class.getResourceAsStream(name)
+                : new FileInputStream(name)) {
+            if (in == null) {
+                if (required) {
+                    throw new IllegalArgumentException("Unknown pipeline profile: " + name);
+                }
+            } else {
+                try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+                    props.load(reader);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot read the pipeline profile " + name, e);
+        }
+        files.put(name, props);
+        return props;
+    }
+}
@@ -0,0 +1,201 @@
+package ca.concordia.gate;
+
+import gate.Document;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-stage latencies and document counts for all PRs of the plugin, registered as MBeans on the platform
+ * MBean server.
+ * <p>
+ * Each stage gets its own {@link LatencyHistogram}, registered as
+ * {@code ca.concordia.gate:type=StageLatency,name=<stage>}; the counters are registered as
+ * {@code ca.concordia.gate:type=PipelineStats}. Stages are the CoreNLP annotator names (tokenize, ssplit,
+ * pos, parse, depparse), plus {@link #MODEL_LOAD} for building a pipeline, {@link #GATE_CONVERSION} for
+ * turning CoreNLP output into GATE annotations and {@link #SERVER} for a document annotated by a CoreNLP server.
+ * <p>
+ * A document is counted once however many PRs of the plugin run on it, and sentences and tokens are counted
+ * by the PR that adds their Sentence and Token annotations, so the counters add up over a chain of PRs.
+ */
+public class PipelineStats implements PipelineStatsMBean {
+    public static final String MODEL_LOAD = "modelLoad";
+    public static final String GATE_CONVERSION = "gateConversion";
+    public static final String DEPENDENCY_NODES = "dependencyNodes";
+    public static final String SERVER = "server";
+
+    private static final String DOMAIN = "ca.concordia.gate";
+    private static final PipelineStats instance = new PipelineStats();
+
+    static {
+        register(DOMAIN + ":type=PipelineStats", instance);
+    }
+
+    private final ConcurrentMap<String, LatencyHistogram> stages = new ConcurrentHashMap<>();
+    private final LongAdder documents = new LongAdder();
+    private final Set<Document> counted = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+    private final LongAdder sentences = new LongAdder();
+    private final LongAdder tokens = new LongAdder();
+    private final LongAdder treeNodes = new LongAdder();
+    private final LongAdder dependencies = new LongAdder();
+    private final LongAdder reloads = new LongAdder();
+    private volatile String lastReload = "";
+    private volatile boolean enabled = !Boolean.getBoolean("ca.concordia.gate.stats.disabled");
+
+    public static PipelineStats get() {
+        return instance;
+    }
+
+    /**
+     * Return the histogram for the given stage, creating and registering it on first use.
+     */
+    public LatencyHistogram stage(String name) {
+        LatencyHistogram histogram = this.stages.get(name);
+        if (histogram == null) {
+            LatencyHistogram created = new LatencyHistogram();
+            histogram = this.stages.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+                register(DOMAIN + ":type=StageLatency,name=" + ObjectName.quote(name), created);
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Start timing a stage. Returns 0 when instrumentation is disabled, which {@link #stop} ignores.
+     */
+    public long start() {
+        return this.enabled ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * Record the time elapsed since the matching {@link #start} against the given stage.
+     */
+    public void stop(String stage, long startNanos) {
+        if (startNanos != 0L) {
+            stage(stage).record(System.nanoTime() - startNanos);
+        }
+    }
+
+    /**
+     * Count the given document, unless an earlier PR has already counted it.
+     */
+    public void addDocument(Document document) {
+        if (this.enabled && this.counted.add(document)) this.documents.increment();
+    }
+
+    public void addSentences(long n) {
+        if (this.enabled) this.sentences.add(n);
+    }
+
+    public void addTokens(long n) {
+        if (this.enabled) this.tokens.add(n);
+    }
+
+    public void addTreeNodes(long n) {
+        if (this.enabled) this.treeNodes.add(n);
+    }
+
+    public void addDependencies(long n) {
+        if (this.enabled) this.dependencies.add(n);
+    }
+
+    /**
+     * Record what a reload of the pipelines did. Reloads are recorded even when instrumentation is disabled.
+     */
+    public void recordReload(StagedPipeline.Reload reload) {
+        this.reloads.increment();
+        this.lastReload = reload.toString();
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return this.enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public long getDocuments() {
+        return this.documents.sum();
+    }
+
+    @Override
+    public long getSentences() {
+        return this.sentences.sum();
+    }
+
+    @Override
+    public long getTokens() {
+        return this.tokens.sum();
+    }
+
+    @Override
+    public long getTreeNodes() {
+        return this.treeNodes.sum();
+    }
+
+    @Override
+    public long getDependencies() {
+        return this.dependencies.sum();
+    }
+
+    @Override
+    public long getReloads() {
+        return this.reloads.sum();
+    }
+
+    @Override
+    public String getLastReload() {
+        return this.lastReload;
+    }
+
+    @Override
+    public String[] getStages() {
+        return this.stages.keySet().toArray(new String[0]);
+    }
+
+    @Override
+    public void reset() {
+        this.documents.reset();
+        this.counted.clear();
+        this.sentences.reset();
+        this.tokens.reset();
+        this.treeNodes.reset();
+        this.dependencies.reset();
+        this.reloads.reset();
+        this.lastReload = "";
+        for (LatencyHistogram histogram : this.stages.values()) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Register the given MBean, replacing one left behind by an earlier copy of the plugin (GATE may load
+     * the plugin again in a new class loader).
+     */
+    static void register(String name, Object mbean) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(mbean, objectName);
+        } catch (JMException | SecurityException e) {
+            e.printStackTrace();
+        }
+    }
+}
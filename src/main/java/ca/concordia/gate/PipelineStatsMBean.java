@@ -0,0 +1,28 @@
+package ca.concordia.gate;
+
+/**
+ * JMX view of the counters kept by {@link PipelineStats}.
+ */
+public interface PipelineStatsMBean {
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    long getDocuments();
+
+    long getSentences();
+
+    long getTokens();
+
+    long getTreeNodes();
+
+    long getDependencies();
+
+    long getReloads();
+
+    String getLastReload();
+
+    String[] getStages();
+
+    void reset();
+}
@@ -0,0 +1,195 @@
+package ca.concordia.gate;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.Annotator;
+import edu.stanford.nlp.util.CoreMap;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects sentences from concurrent callers into micro-batches and runs each batch through one shared
+ * annotator, e.g. a parse,depparse StanfordCoreNLP.
+ * <p>
+ * A batcher thread takes the first waiting sentence, then keeps adding sentences until the batch holds
+ * maxBatch of them or maxWaitMillis have passed. The sentences of a batch are annotated together as one
+ * CoreNLP document, so that an annotator with several threads (parse.nthreads) spreads them over the cores,
+ * while the number of sentences being parsed at once stays bounded however many requests come in. The
+ * annotations land on the callers' own sentence CoreMaps. Closing the batcher fails the sentences that
+ * are still waiting, so no caller is left blocked.
+ */
+public class SentenceBatcher implements Closeable {
+    private final Annotator annotator;
+    private final int maxBatch;
+    private final long maxWaitNanos;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread[] threads;
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong sentences = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * @param annotator     the annotator run over every batch, shared by all batcher threads
+     * @param maxBatch      the maximum number of sentences in a batch
+     * @param maxWaitMillis how long a batch waits for more sentences once it has its first
+     * @param threads       the number of batches annotated at the same time
+     */
+    public SentenceBatcher(Annotator annotator, int maxBatch, int maxWaitMillis, int threads) {
+        this.annotator = annotator;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.threads = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            this.threads[i] = new Thread(this::batchLoop, "sentence-batcher-" + i);
+            this.threads[i].setDaemon(true);
+            this.threads[i].start();
+        }
+    }
+
+    /**
+     * Annotate the given sentences, waiting until every one of them has been through a batch.
+     *
+     * @throws RuntimeException the failure of the annotator on one of the sentences, or the batcher was closed
+     */
+    public void annotate(List<CoreMap> sentences) throws InterruptedException {
+        if (this.closed) {
+            throw new IllegalStateException("Sentence batcher is closed");
+        }
+        Request request = new Request(sentences.size());
+        for (CoreMap sentence : sentences) {
+            this.queue.put(new Pending(sentence, request));
+        }
+        if (this.closed) {
+            // closed while queueing, after the batcher threads stopped taking
+            failQueued();
+        }
+        request.remaining.await();
+        if (request.failure != null) {
+            throw new RuntimeException("Sentence annotation failed", request.failure);
+        }
+    }
+
+    private void batchLoop() {
+        while (!this.closed) {
+            List<Pending> batch = new ArrayList<>();
+            try {
+                batch.add(this.queue.take());
+                long deadline = System.nanoTime() + this.maxWaitNanos;
+                while (batch.size() < this.maxBatch) {
+                    // once the wait is over, still take whatever is already queued
+                    Pending next = this.queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // closed, possibly with part of a batch already taken
+                fail(batch);
+                return;
+            }
+            run(batch);
+        }
+    }
+
+    private void run(List<Pending> batch) {
+        try {
+            annotateBatch(batch);
+        } catch (RuntimeException e) {
+            // annotate the sentences one by one, so that only the request with the bad sentence fails
+            for (Pending pending : batch) {
+                try {
+                    annotateBatch(Collections.singletonList(pending));
+                } catch (RuntimeException single) {
+                    pending.request.failure = single;
+                }
+            }
+        } finally {
+            // counted before the callers are released, so they see their own sentences in the counts
+            this.batches.incrementAndGet();
+            this.sentences.addAndGet(batch.size());
+            for (Pending pending : batch) {
+                pending.request.remaining.countDown();
+            }
+        }
+    }
+
+    private void annotateBatch(List<Pending> batch) {
+        List<CoreMap> batchSentences = new ArrayList<>();
+        List<CoreLabel> tokens = new ArrayList<>();
+        for (Pending pending : batch) {
+            batchSentences.add(pending.sentence);
+            tokens.addAll(pending.sentence.get(CoreAnnotations.TokensAnnotation.class));
+        }
+        Annotation document = new Annotation("");
+        document.set(CoreAnnotations.TokensAnnotation.class, tokens);
+        document.set(CoreAnnotations.SentencesAnnotation.class, batchSentences);
+        this.annotator.annotate(document);
+    }
+
+    /** The number of batches annotated. */
+    public long getBatches() {
+        return this.batches.get();
+    }
+
+    /** The number of sentences annotated. */
+    public long getSentences() {
+        return this.sentences.get();
+    }
+
+    /**
+     * Stop the batcher threads. Batches being annotated finish; sentences still queued fail with an
+     * IllegalStateException, as does any later call to annotate.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        for (Thread thread : this.threads) {
+            thread.interrupt();
+        }
+        failQueued();
+    }
+
+    private void failQueued() {
+        List<Pending> queued = new ArrayList<>();
+        this.queue.drainTo(queued);
+        fail(queued);
+    }
+
+    private static void fail(List<Pending> batch) {
+        for (Pending pending : batch) {
+            if (pending.request.failure == null) {
+                pending.request.failure = new IllegalStateException("Sentence batcher was closed");
+            }
+            pending.request.remaining.countDown();
+        }
+    }
+
+    private static class Request {
+        private final CountDownLatch remaining;
+        private volatile RuntimeException failure;
+
+        private Request(int sentences) {
+            this.remaining = new CountDownLatch(sentences);
+        }
+    }
+
+    private static class Pending {
+        private final CoreMap sentence;
+        private final Request request;
+
+        private Pending(CoreMap sentence, Request request) {
+            this.sentence = sentence;
+            this.request = request;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package ca.concordia.gate;
+
+/**
+ * The publisher, subscriber and subscription interfaces of {@code java.util.concurrent.Flow}, which the plugin
+ * can't use directly as it still runs on Java 8. They have the same methods and the same contract, so on Java 9
+ * and later a {@code Flow.Subscriber} is adapted by forwarding each method, and reactive libraries that accept
+ * Reactive Streams types can wrap them the same way.
+ */
+public final class SentenceFlow {
+
+    private SentenceFlow() {
+    }
+
+    /**
+     * A producer of items that sends them to a subscriber as it requests them.
+     */
+    public interface Publisher<T> {
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * A receiver of items. Its methods are called one at a time: onSubscribe first, then onNext for at most as
+     * many items as it requested, then onComplete or onError unless it cancelled.
+     */
+    public interface Subscriber<T> {
+        void onSubscribe(Subscription subscription);
+
+        void onNext(T item);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    /**
+     * The link between a publisher and its subscriber, through which the subscriber asks for more items.
+     */
+    public interface Subscription {
+        /**
+         * Ask for n more items; a non-positive n ends the subscription with an IllegalArgumentException.
+         */
+        void request(long n);
+
+        void cancel();
+    }
+}
@@ -0,0 +1,36 @@
+package ca.concordia.gate;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event covering one sentence-level CoreNLP stage (parse or depparse) over one sentence.
+ */
+@Name("ca.concordia.gate.SentenceParse")
+@Label("Sentence Parse")
+@Category({"GATE", "CoreNLP"})
+@Description("A CoreNLP parser run over one sentence")
+public class SentenceParseEvent extends Event {
+    @Label("Document")
+    public String documentName;
+
+    @Label("Stage")
+    public String stage;
+
+    @Label("Parser")
+    @Description("The model used by the stage")
+    public String parser;
+
+    @Label("Sentence Index")
+    public int sentenceIndex;
+
+    @Label("Sentence Length")
+    @Description("Number of tokens in the sentence")
+    public int sentenceLength;
+
+    @Label("Outcome")
+    public String outcome = "failed";
+}
@@ -0,0 +1,165 @@
+package ca.concordia.gate;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.util.CoreMap;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Publishes the sentences of a text one by one as they are parsed, so that a consumer can start on the first
+ * sentence while the rest of the document is still being parsed.
+ * <p>
+ * The text is tokenized, split and tagged once the subscriber first requests a sentence; each sentence is then
+ * parsed and dependency parsed only when the subscriber has requested it. A slow subscriber therefore holds
+ * the parser back instead of results piling up, and nothing is buffered beyond the sentence being handed over.
+ * The parsing runs on the given executor, one task per subscription. A publisher serves a single subscriber.
+ * <pre>
+ * pr.sentencePublisher(document, executor).subscribe(new SentenceFlow.Subscriber&lt;SentenceResult&gt;() {...});
+ * </pre>
+ */
+public class SentencePublisher implements SentenceFlow.Publisher<SentenceResult> {
+    private final Properties props;
+    private final String text;
+    private final Executor executor;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    /**
+     * @param props    the CoreNLP properties, without the annotators, e.g. from a CoreNLP PR
+     * @param text     the text to parse
+     * @param executor runs the parsing
+     */
+    public SentencePublisher(Properties props, String text, Executor executor) {
+        this.props = props;
+        this.text = text;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(SentenceFlow.Subscriber<? super SentenceResult> subscriber) {
+        Objects.requireNonNull(subscriber);
+        if (!this.subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new ParseSubscription(subscriber));
+            subscriber.onError(new IllegalStateException("A SentencePublisher serves a single subscriber"));
+            return;
+        }
+        ParseSubscription subscription = new ParseSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        this.executor.execute(subscription::run);
+    }
+
+    private StagedPipeline.Lease pipeline(String annotators) {
+        Properties stageProps = new Properties();
+        stageProps.putAll(this.props);
+        stageProps.setProperty("annotators", annotators);
+        return StagedPipeline.get(stageProps);
+    }
+
+    private class ParseSubscription implements SentenceFlow.Subscription {
+        private final SentenceFlow.Subscriber<? super SentenceResult> subscriber;
+        private long demand;
+        private boolean cancelled;
+        private IllegalArgumentException badRequest;
+
+        private ParseSubscription(SentenceFlow.Subscriber<? super SentenceResult> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public synchronized void request(long n) {
+            if (n <= 0) {
+                this.badRequest = new IllegalArgumentException("request(" + n + "), must be positive");
+            } else {
+                this.demand = this.demand + n < 0 ? Long.MAX_VALUE : this.demand + n;
+            }
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void cancel() {
+            this.cancelled = true;
+            notifyAll();
+        }
+
+        /**
+         * Wait until the subscriber wants another sentence and take it from the demand. Returns false if the
+         * subscription ended instead.
+         */
+        private synchronized boolean awaitDemand() throws InterruptedException {
+            while (this.demand == 0 && !this.cancelled && this.badRequest == null) {
+                wait();
+            }
+            if (this.cancelled || this.badRequest != null) {
+                return false;
+            }
+            this.demand--;
+            return true;
+        }
+
+        private synchronized boolean isCancelled() {
+            return this.cancelled;
+        }
+
+        private void run() {
+            try {
+                if (!awaitDemand()) {
+                    end();
+                    return;
+                }
+                Annotation document = new Annotation(SentencePublisher.this.text);
+                try (StagedPipeline.Lease tagger = pipeline("tokenize,ssplit,pos")) {
+                    tagger.annotate(document);
+                }
+                List<CoreMap> sentences = document.get(CoreAnnotations.SentencesAnnotation.class);
+                for (int i = 0; i < sentences.size(); i++) {
+                    if (i > 0 && !awaitDemand()) {
+                        end();
+                        return;
+                    }
+                    CoreMap sentence = sentences.get(i);
+                    Annotation single = new Annotation(SentencePublisher.this.text);
+                    single.set(CoreAnnotations.TokensAnnotation.class,
+                            sentence.get(CoreAnnotations.TokensAnnotation.class));
+                    single.set(CoreAnnotations.SentencesAnnotation.class, Collections.singletonList(sentence));
+                    // leased per sentence, so a reload need not wait for a slow subscriber
+                    try (StagedPipeline.Lease parser = pipeline("parse,depparse")) {
+                        parser.annotate(single);
+                    }
+                    if (isCancelled()) {
+                        return;
+                    }
+                    this.subscriber.onNext(new SentenceResult(i, sentence));
+                }
+                if (!isCancelled()) {
+                    this.subscriber.onComplete();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                if (!isCancelled()) {
+                    cancel();
+                    this.subscriber.onError(e);
+                }
+            }
+        }
+
+        /**
+         * The subscription ended while waiting for demand: tell the subscriber if it was by a bad request.
+         */
+        private void end() {
+            IllegalArgumentException error;
+            synchronized (this) {
+                error = this.cancelled ? null : this.badRequest;
+                this.cancelled = true;
+            }
+            if (error != null) {
+                this.subscriber.onError(error);
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package ca.concordia.gate;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.semgraph.SemanticGraph;
+import edu.stanford.nlp.semgraph.SemanticGraphCoreAnnotations;
+import edu.stanford.nlp.trees.Tree;
+import edu.stanford.nlp.trees.TreeCoreAnnotations;
+import edu.stanford.nlp.util.CoreMap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One parsed sentence, as emitted by a {@link SentencePublisher}: its tokens with their POS tags and character
+ * offsets in the document, its constituency tree and its dependency graphs.
+ */
+public class SentenceResult {
+    private final int index;
+    private final CoreMap sentence;
+
+    SentenceResult(int index, CoreMap sentence) {
+        this.index = index;
+        this.sentence = sentence;
+    }
+
+    /** The index of the sentence in its document, from 0. */
+    public int getIndex() {
+        return this.index;
+    }
+
+    /** The offset of the sentence's first character in the document text. */
+    public int getStartOffset() {
+        return this.sentence.get(CoreAnnotations.CharacterOffsetBeginAnnotation.class);
+    }
+
+    /** The offset after the sentence's last character in the document text. */
+    public int getEndOffset() {
+        return this.sentence.get(CoreAnnotations.CharacterOffsetEndAnnotation.class);
+    }
+
+    public List<CoreLabel> getTokens() {
+        return Collections.unmodifiableList(this.sentence.get(CoreAnnotations.TokensAnnotation.class));
+    }
+
+    public List<String> getPosTags() {
+        List<String> tags = new ArrayList<>();
+        for (CoreLabel token : getTokens()) {
+            tags.add(token.tag());
+        }
+        return tags;
+    }
+
+    public Tree getTree() {
+        return this.sentence.get(TreeCoreAnnotations.TreeAnnotation.class);
+    }
+
+    /** The basic dependencies, as the CoreNLP PR uses unless useEnhanced is set. */
+    public SemanticGraph getDependencies() {
+        return this.sentence.get(SemanticGraphCoreAnnotations.BasicDependenciesAnnotation.class);
+    }
+
+    public SemanticGraph getEnhancedDependencies() {
+        return this.sentence.get(SemanticGraphCoreAnnotations.EnhancedPlusPlusDependenciesAnnotation.class);
+    }
+
+    /** The CoreNLP sentence, for annotations not covered by the getters. */
+    public CoreMap getSentence() {
+        return this.sentence;
+    }
+}
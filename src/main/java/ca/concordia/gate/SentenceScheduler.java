@@ -0,0 +1,55 @@
+package ca.concordia.gate;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.util.CoreMap;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Orders the sentences of a document for parsing on several threads.
+ * <p>
+ * With {@link #LONGEST_FIRST}, sentences are handed out by decreasing expected cost, so that each thread that
+ * becomes free takes the most expensive sentence left (longest processing time first). The long sentences
+ * start early and the short ones fill the gaps at the end, instead of one long sentence that happens to come
+ * last keeping the whole document waiting. The cost is estimated from the token count and the parser: the PCFG
+ * parser is cubic in the sentence length, the shift-reduce and neural dependency parsers are linear.
+ */
+public class SentenceScheduler {
+    public static final String LONGEST_FIRST = "lpt";
+    public static final String IN_ORDER = "inorder";
+
+    private SentenceScheduler() {
+    }
+
+    /**
+     * The expected relative cost of running the given stage and model on a sentence of the given length.
+     */
+    public static double cost(String stage, String model, int tokens) {
+        if (stage.equals("parse") && !model.contains("srparser")) {
+            return (double) tokens * tokens * tokens;
+        }
+        return tokens;
+    }
+
+    /**
+     * The indices of the sentences in the order they should be started in.
+     *
+     * @param schedule {@link #LONGEST_FIRST} or {@link #IN_ORDER}
+     */
+    public static List<Integer> order(List<CoreMap> sentences, String stage, String model, String schedule) {
+        List<Integer> order = new ArrayList<>();
+        double[] costs = new double[sentences.size()];
+        for (int i = 0; i < sentences.size(); i++) {
+            order.add(i);
+            costs[i] = cost(stage, model, sentences.get(i).get(CoreAnnotations.TokensAnnotation.class).size());
+        }
+        if (schedule.equals(LONGEST_FIRST)) {
+            order.sort(Comparator.comparingDouble((Integer i) -> costs[i]).reversed());
+        } else if (!schedule.equals(IN_ORDER)) {
+            throw new IllegalArgumentException("Unknown sentence schedule " + schedule);
+        }
+        return order;
+    }
+}
@@ -0,0 +1,208 @@
+package ca.concordia.gate;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.stream.StreamSupport;
+
+/**
+ * Splits a batch run over several worker JVMs, each with its own heap, so that throughput keeps growing past
+ * the thread count at which one JVM's garbage collector becomes the limit.
+ * <p>
+ * The coordinator lists the input, leaves out documents that earlier runs already finished, and writes the
+ * rest as tasks into a {@link WorkQueue} under the output directory. It then starts the given number of local
+ * {@link ShardWorker} processes, which claim tasks and write their documents into the shared output directory,
+ * so the merged output needs no extra step. A worker that dies has its claims put back and is restarted;
+ * claims that stop getting heartbeats, e.g. from a worker on another host, are put back after a timeout.
+ * <pre>
+ * java -cp ... ca.concordia.gate.ShardCoordinator --workers 4 --worker-heap 6g --threads 4 \
+ *     --prs CoreNLP,DependencyNodeGenerator input/ output/
+ * </pre>
+ * Options, besides those of {@link BatchRunner}, which are passed on to every worker:
+ * <ul>
+ *   <li>--workers local worker processes (default 2); 0 to only fill the queue and wait for remote workers</li>
+ *   <li>--worker-heap maximum heap of each worker, e.g. 6g (default the JVM's default)</li>
+ *   <li>--jvm-arg an extra JVM argument for the workers, may be repeated</li>
+ *   <li>--task-size documents per task (default 100)</li>
+ *   <li>--claim-timeout seconds without a heartbeat after which a claim is put back (default 120)</li>
+ *   <li>--max-restarts restarts allowed per worker (default 3)</li>
+ *   <li>--queue the queue directory (default output-dir/.queue)</li>
+ * </ul>
+ */
+public class ShardCoordinator {
+
+    /** Options handled by the coordinator rather than passed on to the workers. */
+    private static final Set<String> COORDINATOR_OPTIONS = new HashSet<>(Arrays.asList(
+            "workers", "worker-heap", "jvm-arg", "task-size", "claim-timeout", "max-restarts", "queue", "id",
+            "journal"));
+
+    private static final long POLL_MILLIS = 1000;
+
+    private final File input;
+    private final File outputDir;
+    private final File queueDir;
+    private final List<String> workerCommand;
+    private final long claimTimeoutMillis;
+    private final int maxRestarts;
+
+    /**
+     * @param workerCommand the JVM command line of a worker up to and excluding the --queue, --id, input and
+     *                      output arguments
+     */
+    public ShardCoordinator(File input, File outputDir, File queueDir, List<String> workerCommand,
+                            long claimTimeoutMillis, int maxRestarts) {
+        this.input = input;
+        this.outputDir = outputDir;
+        this.queueDir = queueDir;
+        this.workerCommand = workerCommand;
+        this.claimTimeoutMillis = claimTimeoutMillis;
+        this.maxRestarts = maxRestarts;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, List<String>> options = new LinkedHashMap<>();
+        List<String> paths = BatchRunner.parseArgs(args, options);
+        if (paths.size() != 2) {
+            System.err.println("Usage: ShardCoordinator [options] <input-dir-or-zip> <output-dir>");
+            System.exit(1);
+        }
+        File input = new File(paths.get(0));
+        File outputDir = new File(paths.get(1));
+        File queueDir = new File(BatchRunner.option(options, "queue", new File(outputDir, ".queue").getPath()));
+
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        if (options.containsKey("worker-heap")) {
+            command.add("-Xmx" + BatchRunner.option(options, "worker-heap", null));
+        }
+        command.addAll(options.getOrDefault("jvm-arg", Collections.emptyList()));
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ShardWorker.class.getName());
+        for (Map.Entry<String, List<String>> option : options.entrySet()) {
+            if (!COORDINATOR_OPTIONS.contains(option.getKey())) {
+                for (String value : option.getValue()) {
+                    command.add("--" + option.getKey());
+                    command.add(value);
+                }
+            }
+        }
+
+        ShardCoordinator coordinator = new ShardCoordinator(input, outputDir, queueDir, command,
+                1000 * Long.parseLong(BatchRunner.option(options, "claim-timeout", "120")),
+                Integer.parseInt(BatchRunner.option(options, "max-restarts", "3")));
+        int tasks = coordinator.fillQueue(options, Integer.parseInt(BatchRunner.option(options, "task-size", "100")));
+        System.out.println(tasks + " tasks queued in " + queueDir);
+        boolean complete = coordinator.run(Integer.parseInt(BatchRunner.option(options, "workers", "2")));
+        System.exit(complete ? 0 : 2);
+    }
+
+    /**
+     * Queue every input document that no journal in the output directory has as finished. Returns the number of
+     * tasks.
+     */
+    public int fillQueue(Map<String, List<String>> options, int taskSize) throws IOException {
+        Set<String> finished = finishedDocuments();
+        if (!finished.isEmpty()) {
+            System.out.println(finished.size() + " documents already finished");
+        }
+        try (BatchInput batchInput = BatchRunner.openInput(this.input, options)) {
+            // names are streamed from the input into the task files, never all held at once
+            Iterable<String> names = () -> StreamSupport.stream(batchInput.spliterator(), false)
+                    .map(BatchInput.Item::getName)
+                    .filter(name -> !finished.contains(name))
+                    .iterator();
+            return WorkQueue.create(this.queueDir, names, taskSize);
+        }
+    }
+
+    /**
+     * The documents recorded in the journals of the batch runner and of every worker.
+     */
+    public Set<String> finishedDocuments() throws IOException {
+        Set<String> finished = new HashSet<>();
+        File[] journals = this.outputDir.listFiles((dir, name) -> name.startsWith("batch-journal")
+                && name.endsWith(".tsv"));
+        if (journals != null) {
+            for (File journal : journals) {
+                BatchJournal.readFinished(journal, finished);
+            }
+        }
+        return finished;
+    }
+
+    /**
+     * Start the workers and watch them until the queue is drained. Returns false if workers kept failing and
+     * tasks were left.
+     */
+    public boolean run(int workerCount) throws IOException, InterruptedException {
+        WorkQueue queue = new WorkQueue(this.queueDir);
+        Map<String, Process> workers = new LinkedHashMap<>();
+        Map<String, Integer> restarts = new HashMap<>();
+        String host = hostName();
+        for (int i = 0; i < workerCount; i++) {
+            String id = host + "-" + i;
+            workers.put(id, start(id));
+            restarts.put(id, 0);
+        }
+        long start = System.nanoTime();
+        long lastReport = start;
+        while (true) {
+            for (Map.Entry<String, Process> worker : workers.entrySet()) {
+                Process process = worker.getValue();
+                if (process == null || process.isAlive()) {
+                    continue;
+                }
+                String id = worker.getKey();
+                int requeued = queue.requeue(id);
+                if (requeued > 0 || process.exitValue() != 0) {
+                    System.err.println("Worker " + id + " exited with " + process.exitValue() + ", "
+                            + requeued + " tasks put back");
+                }
+                if (!queue.isDrained() && restarts.get(id) < this.maxRestarts) {
+                    restarts.put(id, restarts.get(id) + 1);
+                    worker.setValue(start(id));
+                } else {
+                    worker.setValue(null);
+                }
+            }
+            int stale = queue.requeueStale(this.claimTimeoutMillis);
+            if (stale > 0) {
+                System.err.println(stale + " stale claims put back");
+            }
+            boolean running = workers.values().stream().anyMatch(Objects::nonNull);
+            if (queue.isDrained() && !running) {
+                break;
+            }
+            if (!running && workerCount > 0) {
+                System.err.println("No workers left, " + queue.getPendingCount() + " tasks not done");
+                return false;
+            }
+            if (System.nanoTime() - lastReport > 10_000_000_000L) {
+                lastReport = System.nanoTime();
+                System.out.println(String.format(Locale.ROOT, "%d tasks done, %d claimed, %d pending, %.0fs elapsed",
+                        queue.getDoneCount(), queue.getClaimedCount(), queue.getPendingCount(),
+                        (lastReport - start) / 1e9));
+            }
+            Thread.sleep(POLL_MILLIS);
+        }
+        System.out.println(String.format(Locale.ROOT, "%d tasks done in %.0fs, %d documents finished in total",
+                queue.getDoneCount(), (System.nanoTime() - start) / 1e9, finishedDocuments().size()));
+        return true;
+    }
+
+    private Process start(String id) throws IOException {
+        List<String> command = new ArrayList<>(this.workerCommand);
+        command.addAll(Arrays.asList("--queue", this.queueDir.getPath(), "--id", id,
+                this.input.getPath(), this.outputDir.getPath()));
+        return new ProcessBuilder(command).inheritIO().start();
+    }
+
+    private static String hostName() {
+        try {
+            return java.net.InetAddress.getLocalHost().getHostName().replace("@", "_");
+        } catch (IOException e) {
+            return "local";
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package ca.concordia.gate;
+
+import gate.Document;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One worker process of a sharded batch run: claims tasks from a {@link WorkQueue} until the queue is drained,
+ * and processes their documents with a {@link BatchRunner}.
+ * <p>
+ * Workers are normally started by a {@link ShardCoordinator}; to add workers on other hosts, start them by hand
+ * with a queue directory and output directory on a file system all hosts share:
+ * <pre>
+ * java -Xmx8g -cp ... ca.concordia.gate.ShardWorker --queue shared/out/.queue --id host2-1 [batch options] \
+ *     shared/input shared/out
+ * </pre>
+ * Each worker keeps its own journal, output-dir/batch-journal-ID.tsv, so a restarted worker skips what it has
+ * already written. All {@link BatchRunner} options except --journal are accepted.
+ */
+public class ShardWorker {
+
+    /** How often a worker touches its current claim. */
+    static final long HEARTBEAT_SECONDS = 10;
+    /** How long a worker waits for tasks that others might give back before looking again. */
+    static final long IDLE_WAIT_MILLIS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, List<String>> options = new HashMap<>();
+        List<String> paths = BatchRunner.parseArgs(args, options);
+        if (paths.size() != 2 || !options.containsKey("queue") || !options.containsKey("id")) {
+            System.err.println("Usage: ShardWorker --queue <queue-dir> --id <worker-id> [options] "
+                    + "<input-dir-or-zip> <output-dir>");
+            System.exit(1);
+        }
+        String id = BatchRunner.option(options, "id", null);
+        WorkQueue queue = new WorkQueue(new File(BatchRunner.option(options, "queue", null)));
+        File outputDir = new File(paths.get(1));
+
+        BatchRunner runner = BatchRunner.create(options);
+        ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "shard-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try (BatchInput input = BatchRunner.openInput(new File(paths.get(0)), options);
+             BatchJournal journal = new BatchJournal(new File(outputDir, "batch-journal-" + id + ".tsv"))) {
+            runner.setJournal(journal);
+            run(id, queue, input, runner, outputDir, heartbeat);
+        } finally {
+            heartbeat.shutdownNow();
+            runner.cleanup();
+        }
+        System.exit(runner.getFailed() > 0 ? 2 : 0);
+    }
+
+    /**
+     * Process tasks until every task of the queue is done.
+     */
+    static void run(String id, WorkQueue queue, BatchInput input, BatchRunner runner, File outputDir,
+                    ScheduledExecutorService heartbeat) throws IOException, InterruptedException {
+        while (!queue.isDrained()) {
+            WorkQueue.Task task = queue.claim(id);
+            if (task == null) {
+                // everything left is claimed by other workers, which may still die and give it back
+                Thread.sleep(IDLE_WAIT_MILLIS);
+                continue;
+            }
+            List<BatchInput.Item> items = new ArrayList<>();
+            for (String name : task.getDocuments()) {
+                items.add(item(input, name));
+            }
+            ScheduledFuture<?> beat = heartbeat.scheduleAtFixedRate(() -> queue.heartbeat(task),
+                    HEARTBEAT_SECONDS, HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+            try {
+                runner.run(items, outputDir);
+            } finally {
+                beat.cancel(false);
+            }
+            try {
+                queue.complete(task);
+            } catch (NoSuchFileException e) {
+                // the claim went stale and was given to another worker, which writes the same output
+                System.err.println(id + ": claim on " + task.getName() + " was lost");
+            }
+        }
+    }
+
+    /**
+     * The named input item. One that cannot be found is still handed to the runner, and fails when it is
+     * loaded, so it counts as failed and the rest of the task goes on.
+     */
+    private static BatchInput.Item item(BatchInput input, String name) {
+        try {
+            return input.get(name);
+        } catch (IOException e) {
+            return new BatchInput.Item() {
+                public String getName() {
+                    return name;
+                }
+
+                public Document load() throws IOException {
+                    throw e;
+                }
+            };
+        }
+    }
+}
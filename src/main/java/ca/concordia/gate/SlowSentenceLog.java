@@ -0,0 +1,175 @@
+package ca.concordia.gate;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.util.CoreMap;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An append-only log of sentences that took longer than a threshold to parse, rotated by size.
+ * <p>
+ * Each line is one sentence, as tab separated fields: time logged, document name, stage, parser model,
+ * elapsed milliseconds, token count, the tokens separated by single spaces, and the sentence text. Tabs,
+ * newlines and backslashes in the fields are escaped. When the file grows past {@link #MAX_BYTES} it is
+ * renamed to {@code <file>.1} (shifting older files up to {@code <file>.5}) and a new file is started.
+ * {@link SlowSentenceReplay} parses the logged sentences again in isolation.
+ */
+public class SlowSentenceLog {
+    public static final long MAX_BYTES = 10L * 1024 * 1024;
+    public static final int MAX_BACKUPS = 5;
+
+    private static final Map<File, SlowSentenceLog> logs = new HashMap<>();
+
+    private final File file;
+    private Writer writer;
+    private long size;
+
+    private SlowSentenceLog(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Return the log writing to the given file. All PRs logging to the same file share one instance.
+     */
+    public static SlowSentenceLog get(String path) {
+        File file = new File(path).getAbsoluteFile();
+        synchronized (logs) {
+            SlowSentenceLog log = logs.get(file);
+            if (log == null) {
+                log = new SlowSentenceLog(file);
+                logs.put(file, log);
+            }
+            return log;
+        }
+    }
+
+    /**
+     * Append one sentence to the log.
+     */
+    public synchronized void append(String documentName, String stage, String parser, CoreMap sentence,
+                                    long elapsedNanos) {
+        List<CoreLabel> tokens = sentence.get(CoreAnnotations.TokensAnnotation.class);
+        StringBuilder words = new StringBuilder();
+        for (CoreLabel token : tokens) {
+            if (words.length() > 0) {
+                words.append(' ');
+            }
+            words.append(token.word());
+        }
+        String text = sentence.get(CoreAnnotations.TextAnnotation.class);
+        String line = String.join("\t",
+                String.valueOf(System.currentTimeMillis()),
+                escape(documentName),
+                escape(stage),
+                escape(parser),
+                String.valueOf(TimeUnit.NANOSECONDS.toMillis(elapsedNanos)),
+                String.valueOf(tokens.size()),
+                escape(words.toString()),
+                escape(text == null ? words.toString() : text)) + "\n";
+        try {
+            if (this.writer == null) {
+                open();
+            }
+            if (this.size > 0 && this.size + line.length() > MAX_BYTES) {
+                rotate();
+            }
+            this.writer.write(line);
+            this.writer.flush();
+            this.size += line.getBytes(StandardCharsets.UTF_8).length;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void open() throws IOException {
+        File parent = this.file.getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        this.writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(this.file, true), StandardCharsets.UTF_8));
+        this.size = this.file.length();
+    }
+
+    private void rotate() throws IOException {
+        this.writer.close();
+        new File(this.file.getPath() + "." + MAX_BACKUPS).delete();
+        for (int i = MAX_BACKUPS - 1; i >= 1; i--) {
+            File older = new File(this.file.getPath() + "." + i);
+            if (older.exists()) {
+                older.renameTo(new File(this.file.getPath() + "." + (i + 1)));
+            }
+        }
+        this.file.renameTo(new File(this.file.getPath() + ".1"));
+        open();
+    }
+
+    /**
+     * One sentence read back from a log file.
+     */
+    public static class Entry {
+        public final String documentName;
+        public final String stage;
+        public final String parser;
+        public final long elapsedMillis;
+        public final List<String> tokens;
+        public final String text;
+
+        private Entry(String[] fields) {
+            this.documentName = unescape(fields[1]);
+            this.stage = unescape(fields[2]);
+            this.parser = unescape(fields[3]);
+            this.elapsedMillis = Long.parseLong(fields[4]);
+            this.tokens = Arrays.asList(unescape(fields[6]).split(" "));
+            this.text = unescape(fields[7]);
+        }
+    }
+
+    /**
+     * Read all entries of the given log file.
+     */
+    public static List<Entry> read(File file) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length == 8) {
+                    entries.add(new Entry(fields));
+                }
+            }
+        }
+        return entries;
+    }
+
+    static String escape(String field) {
+        if (field == null) {
+            return "";
+        }
+        return field.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+
+    static String unescape(String field) {
+        StringBuilder out = new StringBuilder(field.length());
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '\\' && i + 1 < field.length()) {
+                char next = field.charAt(++i);
+                switch (next) {
+                    case 't': out.append('\t'); break;
+                    case 'n': out.append('\n'); break;
+                    case 'r': out.append('\r'); break;
+                    default: out.append(next);
+                }
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,84 @@
+package ca.concordia.gate;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.pipeline.Annotation;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses the sentences of a {@link SlowSentenceLog} again, one at a time, and reports how long each takes.
+ * <p>
+ * Each sentence is rebuilt from its logged tokens, tagged, and run through the stage and parser model it was
+ * logged with, so a fix to a pathological sentence can be benchmarked without the rest of its document.
+ * <pre>
+ * java -cp ... ca.concordia.gate.SlowSentenceReplay slow-sentences.log [repetitions] [pipeline.properties]
+ * </pre>
+ * The optional properties file provides the base CoreNLP settings, e.g. the Spanish models.
+ */
+public class SlowSentenceReplay {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: SlowSentenceReplay <log-file> [repetitions] [pipeline.properties]");
+            System.exit(1);
+        }
+        List<SlowSentenceLog.Entry> entries = SlowSentenceLog.read(new File(args[0]));
+        int repetitions = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        Properties baseProps = new Properties();
+        if (args.length > 2) {
+            try (InputStream in = new FileInputStream(args[2])) {
+                baseProps.load(in);
+            }
+        }
+        System.out.println("#\tdocument\tstage\tparser\ttokens\tlogged ms\tmin ms\tmedian ms");
+        for (int i = 0; i < entries.size(); i++) {
+            SlowSentenceLog.Entry entry = entries.get(i);
+            long[] times = new long[repetitions];
+            for (int r = 0; r < repetitions; r++) {
+                times[r] = replay(entry, baseProps);
+            }
+            Arrays.sort(times);
+            System.out.println(i + "\t" + entry.documentName + "\t" + entry.stage + "\t" + entry.parser + "\t"
+                    + entry.tokens.size() + "\t" + entry.elapsedMillis + "\t"
+                    + TimeUnit.NANOSECONDS.toMillis(times[0]) + "\t"
+                    + TimeUnit.NANOSECONDS.toMillis(times[times.length / 2]));
+        }
+    }
+
+    /**
+     * Parse the logged sentence on its own and return the time spent in its logged stage, in nanoseconds.
+     */
+    public static long replay(SlowSentenceLog.Entry entry, Properties baseProps) {
+        Properties props = new Properties();
+        props.putAll(baseProps);
+        props.setProperty("annotators", "ssplit,pos," + entry.stage);
+        props.setProperty("ssplit.isOneSentence", "true");
+        if (!entry.parser.equals("default")) {
+            props.setProperty(entry.stage + ".model", entry.parser);
+        }
+        List<CoreLabel> tokens = new ArrayList<>();
+        StringBuilder text = new StringBuilder();
+        for (String word : entry.tokens) {
+            if (text.length() > 0) {
+                text.append(' ');
+            }
+            int start = text.length();
+            text.append(word);
+            tokens.add(AnnotationHandoff.tokenLabel(word, start, text.length()));
+        }
+        Annotation document = new Annotation(text.toString());
+        document.set(CoreAnnotations.TokensAnnotation.class, tokens);
+        long[] elapsed = new long[1];
+        try (StagedPipeline.Lease pipeline = StagedPipeline.get(props)) {
+            pipeline.annotate(document, entry.documentName,
+                    (stage, parser, sentence, elapsedNanos) -> elapsed[0] += elapsedNanos);
+        }
+        return elapsed[0];
+    }
+}
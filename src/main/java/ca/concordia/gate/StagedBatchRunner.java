@@ -0,0 +1,302 @@
+package ca.concordia.gate;
+
+import gate.*;
+import gate.creole.ResourceInstantiationException;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a pipeline of this plugin's PRs over a directory or zip archive as an assembly line: loading, every PR
+ * and writing are separate stages, each with its own threads and a bounded queue in front of it. While one
+ * document is written, the next can be parsed and the one after it segmented, instead of each document going
+ * through all PRs before the next one starts as in {@link BatchRunner}.
+ * <p>
+ * Every thread of a PR stage has its own duplicate of the PR. A full queue blocks the stage before it, so the
+ * number of documents in memory is bounded by the queue sizes and thread counts. The depth of each queue is
+ * exposed over JMX as {@code ca.concordia.gate:type=BatchStage,name=<stage>} (see {@link BatchStage}) and printed
+ * with the progress, so threads can be moved to the stage whose queue stays full.
+ * <pre>
+ * java -cp ... ca.concordia.gate.StagedBatchRunner --prs CoreSegmenter,CoreNLP,DependencyNodeGenerator \
+ *     --param CoreNLP.includeTokenizer=false --stage-threads 1,6,1 input/ output/
+ * </pre>
+ * Options, besides --prs, --gapp, --param, --encoding, --mime-type, --progress and --journal as for
+ * {@link BatchRunner}:
+ * <ul>
+ *   <li>--stage-threads comma separated threads for each PR, in pipeline order (default the number of cores
+ *       for CoreNLP, 1 for the others)</li>
+ *   <li>--load-threads threads loading documents (default 2)</li>
+ *   <li>--write-threads threads writing documents (default 2)</li>
+ *   <li>--queue-size documents waiting in front of each stage (default 4)</li>
+ * </ul>
+ */
+public class StagedBatchRunner {
+
+    /** Put in the queue of a stage once per thread after the last document. */
+    private static final Job END = new Job(null);
+
+    private final List<BatchStage> stages = new ArrayList<>();
+    private final List<List<Work>> work = new ArrayList<>();
+    private final List<ProcessingResource> duplicates = new ArrayList<>();
+    private final int progressSeconds;
+
+    private BatchJournal journal;
+    private File outputDir;
+
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * @param prs             the PRs to run, in order
+     * @param prThreads       the number of threads for each PR; a PR is duplicated for each thread after the first
+     * @param loadThreads     the number of threads loading documents
+     * @param writeThreads    the number of threads writing documents
+     * @param queueSize       the number of documents waiting in front of each stage
+     * @param progressSeconds seconds between progress reports, 0 for none
+     */
+    public StagedBatchRunner(List<ProcessingResource> prs, List<Integer> prThreads, int loadThreads,
+                             int writeThreads, int queueSize, int progressSeconds)
+            throws ResourceInstantiationException {
+        addStage("load", queueSize, Collections.nCopies(loadThreads, job -> job.document = job.item.load()));
+        for (int i = 0; i < prs.size(); i++) {
+            ProcessingResource pr = prs.get(i);
+            List<Work> threads = new ArrayList<>();
+            for (int t = 0; t < prThreads.get(i); t++) {
+                LanguageAnalyser analyser = (LanguageAnalyser) (t == 0 ? pr : Factory.duplicate(pr));
+                if (t > 0) {
+                    this.duplicates.add(analyser);
+                }
+                threads.add(job -> {
+                    analyser.setDocument(job.document);
+                    try {
+                        analyser.execute();
+                    } finally {
+                        analyser.setDocument(null);
+                    }
+                });
+            }
+            addStage(i + "-" + pr.getName(), queueSize, threads);
+        }
+        addStage("write", queueSize, Collections.nCopies(writeThreads, this::write));
+        this.progressSeconds = progressSeconds;
+    }
+
+    private void addStage(String name, int queueSize, List<Work> threads) {
+        this.stages.add(new BatchStage(name, threads.size(), queueSize));
+        this.work.add(threads);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, List<String>> options = new HashMap<>();
+        List<String> paths = BatchRunner.parseArgs(args, options);
+        if (paths.size() != 2) {
+            System.err.println("Usage: StagedBatchRunner [options] <input-dir-or-zip> <output-dir>");
+            System.exit(1);
+        }
+        CorpusController pipeline = BatchRunner.createPipeline(options);
+        List<ProcessingResource> prs = new ArrayList<>(pipeline.getPRs());
+        List<Integer> prThreads = new ArrayList<>();
+        if (options.containsKey("stage-threads")) {
+            for (String threads : BatchRunner.split(BatchRunner.option(options, "stage-threads", null))) {
+                prThreads.add(Integer.parseInt(threads.trim()));
+            }
+            if (prThreads.size() != prs.size()) {
+                System.err.println("--stage-threads needs one count for each of the " + prs.size() + " PRs");
+                System.exit(1);
+            }
+        } else {
+            int cores = Runtime.getRuntime().availableProcessors();
+            for (ProcessingResource pr : prs) {
+                prThreads.add(pr instanceof CoreNLP ? cores : 1);
+            }
+        }
+        StagedBatchRunner runner = new StagedBatchRunner(prs, prThreads,
+                Integer.parseInt(BatchRunner.option(options, "load-threads", "2")),
+                Integer.parseInt(BatchRunner.option(options, "write-threads", "2")),
+                Integer.parseInt(BatchRunner.option(options, "queue-size", "4")),
+                Integer.parseInt(BatchRunner.option(options, "progress", "10")));
+        File outputDir = new File(paths.get(1));
+        String journalFile = BatchRunner.option(options, "journal",
+                new File(outputDir, "batch-journal.tsv").getPath());
+        try (BatchInput input = BatchRunner.openInput(new File(paths.get(0)), options);
+             BatchJournal journal = journalFile.equals("none") ? null : new BatchJournal(new File(journalFile))) {
+            runner.setJournal(journal);
+            runner.run(input, outputDir);
+        } finally {
+            runner.cleanup();
+            Factory.deleteResource(pipeline);
+        }
+        System.exit(runner.getFailed() > 0 ? 2 : 0);
+    }
+
+    /**
+     * Record finished documents in the journal, and skip those it already holds; null for no journal.
+     */
+    public void setJournal(BatchJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Process every document of the input through all stages and write the results under the output directory.
+     */
+    public void run(Iterable<BatchInput.Item> input, File outputDir) throws InterruptedException {
+        this.outputDir = outputDir;
+        List<Thread> threads = new ArrayList<>();
+        for (int s = 0; s < this.stages.size(); s++) {
+            AtomicInteger running = new AtomicInteger(this.work.get(s).size());
+            for (int t = 0; t < this.work.get(s).size(); t++) {
+                int stage = s;
+                Work work = this.work.get(s).get(t);
+                Thread thread = new Thread(() -> stageLoop(stage, work, running),
+                        "stage-" + this.stages.get(s).getName() + "-" + t);
+                thread.start();
+                threads.add(thread);
+            }
+        }
+        ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "batch-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long start = System.nanoTime();
+        if (this.progressSeconds > 0) {
+            progress.scheduleAtFixedRate(() -> report(start), this.progressSeconds, this.progressSeconds,
+                    TimeUnit.SECONDS);
+        }
+        try {
+            BatchStage first = this.stages.get(0);
+            for (BatchInput.Item item : input) {
+                if (this.journal != null && this.journal.isFinished(item.getName())) {
+                    this.skipped.incrementAndGet();
+                    continue;
+                }
+                first.queue().put(new Job(item));
+            }
+            for (int t = 0; t < first.getThreads(); t++) {
+                first.queue().put(END);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } finally {
+            progress.shutdownNow();
+        }
+        report(start);
+    }
+
+    /**
+     * Take documents from the stage's queue, run the stage on them and pass them on, until the end marker.
+     * The last thread of a stage to see the end passes it on to every thread of the next stage.
+     */
+    private void stageLoop(int stage, Work work, AtomicInteger running) {
+        BatchStage current = this.stages.get(stage);
+        BatchStage next = stage + 1 < this.stages.size() ? this.stages.get(stage + 1) : null;
+        try {
+            while (true) {
+                Job job = current.queue().take();
+                if (job == END) {
+                    if (running.decrementAndGet() == 0 && next != null) {
+                        for (int t = 0; t < next.getThreads(); t++) {
+                            next.queue().put(END);
+                        }
+                    }
+                    return;
+                }
+                long start = current.started();
+                boolean done = false;
+                try {
+                    work.run(job);
+                    done = true;
+                } catch (Exception e) {
+                    this.failed.incrementAndGet();
+                    System.err.println("Failed in stage " + current.getName() + ": " + job.item.getName());
+                    e.printStackTrace();
+                    if (job.document != null) {
+                        Factory.deleteResource(job.document);
+                    }
+                } finally {
+                    current.finished(start);
+                }
+                if (done && next != null) {
+                    next.queue().put(job);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write(Job job) throws Exception {
+        try {
+            Path output = BatchRunner.writeXml(job.document, this.outputDir, job.item.getName());
+            if (this.journal != null) {
+                this.journal.finished(job.item.getName(), output.toString());
+            }
+            this.processed.incrementAndGet();
+        } finally {
+            Factory.deleteResource(job.document);
+            job.document = null;
+        }
+    }
+
+    private void report(long start) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        StringBuilder queues = new StringBuilder();
+        for (BatchStage stage : this.stages) {
+            queues.append(String.format(Locale.ROOT, " %s %d/%d", stage.getName(), stage.getQueueDepth(),
+                    stage.getQueueCapacity()));
+        }
+        System.out.println(String.format(Locale.ROOT,
+                "%d documents, %d failed, %d skipped, %.1f docs/sec, %.0fs elapsed, queues:%s",
+                this.processed.get(), this.failed.get(), this.skipped.get(), this.processed.get() / seconds,
+                seconds, queues));
+    }
+
+    public long getProcessed() {
+        return this.processed.get();
+    }
+
+    public long getFailed() {
+        return this.failed.get();
+    }
+
+    public long getSkipped() {
+        return this.skipped.get();
+    }
+
+    public List<BatchStage> getStages() {
+        return Collections.unmodifiableList(this.stages);
+    }
+
+    /**
+     * Delete the PR duplicates made for the extra threads; the PRs passed in are left to the caller.
+     */
+    public void cleanup() {
+        for (ProcessingResource duplicate : this.duplicates) {
+            Factory.deleteResource(duplicate);
+        }
+    }
+
+    /**
+     * A document on its way through the stages.
+     */
+    static class Job {
+        private final BatchInput.Item item;
+        private Document document;
+
+        private Job(BatchInput.Item item) {
+            this.item = item;
+        }
+    }
+
+    private interface Work {
+        void run(Job job) throws Exception;
+    }
+}
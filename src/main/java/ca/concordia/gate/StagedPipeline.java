@@ -0,0 +1,624 @@
+package ca.concordia.gate;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.StanfordCoreNLP;
+import edu.stanford.nlp.util.CoreMap;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A CoreNLP pipeline that runs each annotator as its own stage, so that the time spent in each one can be
+ * recorded in {@link PipelineStats}.
+ * <p>
+ * Every stage is a StanfordCoreNLP holding a single annotator. CoreNLP shares annotators with the same
+ * configuration between pipelines, so splitting the pipeline doesn't load any model twice. Pipelines are
+ * cached by their properties, so a PR only pays for building one on the first document, until
+ * {@link #evictIdle} drops the pipelines that have not been used for a while, or {@link #reload} replaces
+ * them with freshly loaded ones. A pipeline is used through the {@link Lease} that {@link #get} hands out,
+ * which keeps it from being closed until the lease is closed.
+ * <p>
+ * The parse and depparse stages are run one sentence at a time, and each sentence is recorded as a
+ * {@link SentenceParseEvent} for Java Flight Recorder. If the properties set "parserWorkers.count", those
+ * stages run in a {@link ParserWorkerPool} of child JVMs instead, and their models are not loaded here.
+ * <p>
+ * If the properties set "sentenceThreads.count" above 1, the sentences of a document are parsed in parallel on
+ * that many threads shared by all threads using the pipeline, started in the order given by
+ * {@link SentenceScheduler} ("sentenceThreads.schedule", longest first by default).
+ * <p>
+ * If the properties set "parse.adaptive.length" and "parse.adaptive.model", the parse stage also loads that
+ * shift-reduce model and an {@link AdaptiveParser} picks the model for each sentence by its length and the load.
+ * Parser workers always use the one parse model.
+ */
+public class StagedPipeline {
+    private static final Map<String, StagedPipeline> pipelines = new HashMap<>();
+    /** The pipelines being built by {@link #get}, so that each is built once and outside the cache lock. */
+    private static final ConcurrentMap<String, FutureTask<StagedPipeline>> building = new ConcurrentHashMap<>();
+    private static final Object reloadLock = new Object();
+    private static final AtomicLong generations = new AtomicLong();
+    private static final Set<String> sentenceStages = new HashSet<>(Arrays.asList("parse", "depparse"));
+
+    /** The number of threads the sentences of a document are parsed on; 1 or less to parse them in turn. */
+    public static final String SENTENCE_THREADS_PROPERTY = "sentenceThreads.count";
+    /** The order the sentences are started in on those threads, see {@link SentenceScheduler} (default lpt). */
+    public static final String SCHEDULE_PROPERTY = "sentenceThreads.schedule";
+
+    private final Properties props;
+    private final String[] stageNames;
+    private final StanfordCoreNLP[] stages;
+    private final String[] parsers;
+    private final ParserWorkerPool[] workerPools;
+    private final ExecutorService sentenceThreads;
+    private final String schedule;
+    private AdaptiveParser adaptiveParser;
+    private StanfordCoreNLP srStage;
+    private final long generation = generations.incrementAndGet();
+    /** The open leases; only taken while holding the cache lock, and only while the pipeline is cached. */
+    private final AtomicInteger active = new AtomicInteger();
+    /** Set, under the cache lock, once the pipeline is out of the cache; no lease can be taken after that. */
+    private volatile boolean retired;
+    private volatile long lastUsed = System.nanoTime();
+
+    private StagedPipeline(Properties props) {
+        this.props = new Properties();
+        this.props.putAll(props);
+        String[] annotators = props.getProperty("annotators").split("\\s*,\\s*");
+        this.stageNames = annotators;
+        this.stages = new StanfordCoreNLP[annotators.length];
+        this.parsers = new String[annotators.length];
+        this.workerPools = new ParserWorkerPool[annotators.length];
+        int sentenceThreadCount = Integer.parseInt(props.getProperty(SENTENCE_THREADS_PROPERTY, "1"));
+        this.sentenceThreads = sentenceThreadCount > 1
+                ? Executors.newFixedThreadPool(sentenceThreadCount, BatchRunner.threadFactory("sentence-parse"))
+                : null;
+        this.schedule = props.getProperty(SCHEDULE_PROPERTY, SentenceScheduler.LONGEST_FIRST);
+        for (int i = 0; i < annotators.length; i++) {
+            this.parsers[i] = props.getProperty(annotators[i] + ".model", "default");
+            if (sentenceStages.contains(annotators[i]) && ParserWorkerPool.isEnabled(props)) {
+                this.workerPools[i] = new ParserWorkerPool(annotators[i], props);
+                continue;
+            }
+            Properties stageProps = new Properties();
+            stageProps.putAll(props);
+            stageProps.setProperty("annotators", annotators[i]);
+            // the earlier stages have already provided what this annotator requires
+            this.stages[i] = new StanfordCoreNLP(stageProps, false);
+            if (annotators[i].equals("parse") && AdaptiveParser.isEnabled(props)) {
+                this.adaptiveParser = new AdaptiveParser(props);
+                stageProps.setProperty("parse.model", props.getProperty(AdaptiveParser.MODEL_PROPERTY));
+                this.srStage = new StanfordCoreNLP(stageProps, false);
+            }
+        }
+    }
+
+    /**
+     * Lease the pipeline for the given properties, building it if this is the first time they are seen. Loading
+     * the models happens outside the cache lock, so callers of other pipelines never wait for it, and callers
+     * asking for the same properties at once wait for the one build. The pipeline is not closed, by a reload or
+     * eviction, before the lease is; close it in a finally block, or with try-with-resources.
+     */
+    public static Lease get(Properties props) {
+        String key = cacheKey(props);
+        Lease lease = lease(key);
+        if (lease != null) {
+            return lease;
+        }
+        FutureTask<StagedPipeline> task = new FutureTask<>(() -> {
+            // another caller may have finished building it just before this task was registered
+            synchronized (pipelines) {
+                StagedPipeline built = pipelines.get(key);
+                if (built != null) {
+                    return built;
+                }
+            }
+            StagedPipeline built = build(props);
+            synchronized (pipelines) {
+                pipelines.put(key, built);
+            }
+            return built;
+        });
+        FutureTask<StagedPipeline> running = building.putIfAbsent(key, task);
+        if (running == null) {
+            running = task;
+            try {
+                task.run();
+            } finally {
+                building.remove(key, task);
+            }
+        }
+        try {
+            running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the pipeline to be built", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+                    : new RuntimeException(e.getCause());
+        }
+        lease = lease(key);
+        // replaced or evicted as soon as it was built: take the new one, or build it again
+        return lease != null ? lease : get(props);
+    }
+
+    /**
+     * Lease the cached pipeline for the key, or return null if there is none.
+     */
+    private static Lease lease(String key) {
+        synchronized (pipelines) {
+            StagedPipeline pipeline = pipelines.get(key);
+            if (pipeline == null) {
+                return null;
+            }
+            pipeline.active.incrementAndGet();
+            pipeline.lastUsed = System.nanoTime();
+            return new Lease(pipeline, key);
+        }
+    }
+
+    private void release() {
+        this.lastUsed = System.nanoTime();
+        if (this.active.decrementAndGet() == 0 && this.retired) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    private static StagedPipeline build(Properties props) {
+        ModelLoadEvent event = new ModelLoadEvent();
+        event.annotators = props.getProperty("annotators");
+        event.parser = props.getProperty("parse.model", "default");
+        event.begin();
+        long start = PipelineStats.get().start();
+        StagedPipeline pipeline;
+        try {
+            pipeline = new StagedPipeline(props);
+            event.outcome = "ok";
+        } finally {
+            event.end();
+            event.commit();
+        }
+        PipelineStats.get().stop(PipelineStats.MODEL_LOAD, start);
+        return pipeline;
+    }
+
+    /**
+     * Rebuild the given cached pipelines from their properties, loading the models afresh, while the old pipelines
+     * keep annotating. The pipelines are given by cache key and the generation the caller last leased; one that
+     * has been rebuilt since, e.g. by a duplicate of the same PR, or that is no longer cached, is left alone, so
+     * every set of properties is reloaded once. Once all are built, the new pipelines replace the old ones in the
+     * cache at once, so every later {@link #get} leases a new one; the leases already taken finish on the old
+     * pipelines, which are then closed and their models left to the garbage collector. Returns once that is done.
+     * If a pipeline fails to build, the old ones are kept and the failure thrown.
+     * <p>
+     * New pipelines must not share CoreNLP's cached annotators with the old ones, so its JVM-wide annotator pool is
+     * cleared; pipelines that are not reloaded keep the annotators they hold. Until the swap, both sets of models
+     * are in memory, so the heap must have room for the largest of them twice.
+     */
+    public static Reload reload(Map<String, Long> leased) throws InterruptedException {
+        synchronized (reloadLock) {
+            MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+            Reload reload = new Reload();
+            reload.heapBefore = memory.getHeapMemoryUsage().getUsed();
+            Map<String, StagedPipeline> old = new HashMap<>();
+            synchronized (pipelines) {
+                for (Map.Entry<String, Long> entry : leased.entrySet()) {
+                    StagedPipeline pipeline = pipelines.get(entry.getKey());
+                    if (pipeline != null && pipeline.generation == entry.getValue()) {
+                        old.put(entry.getKey(), pipeline);
+                    }
+                }
+                if (!old.isEmpty()) {
+                    StanfordCoreNLP.clearAnnotatorPool();
+                }
+            }
+            if (old.isEmpty()) {
+                return reload;
+            }
+            PipelineProfile.clearCache();
+            long start = System.nanoTime();
+            Map<String, StagedPipeline> built = new HashMap<>();
+            try {
+                for (Map.Entry<String, StagedPipeline> entry : old.entrySet()) {
+                    built.put(entry.getKey(), build(entry.getValue().props));
+                }
+            } catch (RuntimeException e) {
+                // the old pipelines stay in place
+                for (StagedPipeline pipeline : built.values()) {
+                    pipeline.close();
+                }
+                throw e;
+            }
+            reload.buildNanos = System.nanoTime() - start;
+            reload.heapBothLoaded = memory.getHeapMemoryUsage().getUsed();
+
+            long swapStart = System.nanoTime();
+            List<StagedPipeline> retired = new ArrayList<>();
+            synchronized (pipelines) {
+                for (Map.Entry<String, StagedPipeline> entry : built.entrySet()) {
+                    if (pipelines.get(entry.getKey()) == old.get(entry.getKey())) {
+                        pipelines.put(entry.getKey(), entry.getValue());
+                        StagedPipeline replaced = old.get(entry.getKey());
+                        replaced.retired = true;
+                        retired.add(replaced);
+                    } else {
+                        // evicted, and maybe built again, while the new one was being built
+                        entry.getValue().close();
+                    }
+                }
+            }
+            reload.swapNanos = System.nanoTime() - swapStart;
+            reload.pipelines = retired.size();
+
+            long drainStart = System.nanoTime();
+            for (StagedPipeline pipeline : retired) {
+                pipeline.drain();
+                pipeline.close();
+            }
+            reload.drainNanos = System.nanoTime() - drainStart;
+            reload.heapAfter = memory.getHeapMemoryUsage().getUsed();
+            return reload;
+        }
+    }
+
+    /**
+     * Wait until every lease of this retired pipeline is closed. No new lease can be taken once it is retired.
+     */
+    private synchronized void drain() throws InterruptedException {
+        while (this.active.get() > 0) {
+            wait();
+        }
+    }
+
+    /**
+     * Drop the cached pipelines that have not been used for the given time and have no open lease, and stop their
+     * threads and worker processes.
+     * <p>
+     * CoreNLP's annotator pool is shared by the whole JVM and cannot drop single annotators, so it is left alone:
+     * it only holds its annotators softly, and the models that no remaining pipeline uses are collected when the
+     * heap runs short, or reused if the same properties come back.
+     *
+     * @return the number of pipelines dropped
+     */
+    public static int evictIdle(long idleMillis) {
+        long idleSince = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(idleMillis);
+        List<StagedPipeline> evicted = new ArrayList<>();
+        synchronized (pipelines) {
+            Iterator<StagedPipeline> cached = pipelines.values().iterator();
+            while (cached.hasNext()) {
+                StagedPipeline pipeline = cached.next();
+                if (pipeline.active.get() == 0 && pipeline.lastUsed - idleSince < 0) {
+                    cached.remove();
+                    pipeline.retired = true;
+                    evicted.add(pipeline);
+                }
+            }
+        }
+        for (StagedPipeline pipeline : evicted) {
+            pipeline.close();
+        }
+        return evicted.size();
+    }
+
+    private void close() {
+        for (int i = 0; i < this.stages.length; i++) {
+            if (this.workerPools[i] != null) {
+                this.workerPools[i].close();
+            }
+        }
+        if (this.sentenceThreads != null) {
+            this.sentenceThreads.shutdown();
+        }
+    }
+
+    /**
+     * The properties as a canonical, sorted string.
+     */
+    static String cacheKey(Properties props) {
+        return new TreeMap<>(props).toString();
+    }
+
+    private void annotateStages(Annotation document, String documentName, SentenceListener listener) {
+        PipelineStats stats = PipelineStats.get();
+        for (int i = 0; i < this.stages.length; i++) {
+            long start = stats.start();
+            if (sentenceStages.contains(this.stageNames[i])
+                    && document.containsKey(CoreAnnotations.SentencesAnnotation.class)) {
+                annotateSentences(i, document, documentName, listener);
+            } else if (this.workerPools[i] != null) {
+                throw new IllegalStateException("Parser workers need the document split into sentences");
+            } else {
+                this.stages[i].annotate(document);
+            }
+            stats.stop(this.stageNames[i], start);
+        }
+    }
+
+    /**
+     * Run the given stage over each sentence of the document on its own. The sentence annotators only look
+     * at the sentence they are given, so the results land on the document's own sentence CoreMaps.
+     */
+    private void annotateSentences(int stage, Annotation document, String documentName,
+                                   SentenceListener listener) {
+        String text = document.get(CoreAnnotations.TextAnnotation.class);
+        List<CoreMap> sentences = document.get(CoreAnnotations.SentencesAnnotation.class);
+        runSentences(stage, text, sentences, documentName, listener);
+    }
+
+    /**
+     * Run the given stage over the sentences in turn, or on the sentence threads in the scheduled order.
+     * For the adaptive parser, a sentence counts towards the load from when it is queued until its parse ends.
+     */
+    private void runSentences(int stage, String text, List<CoreMap> sentences, String documentName,
+                              SentenceListener listener) {
+        AdaptiveParser load = this.srStage != null && this.stageNames[stage].equals("parse")
+                ? this.adaptiveParser : null;
+        if (this.sentenceThreads == null || sentences.size() < 2) {
+            for (int i = 0; i < sentences.size(); i++) {
+                if (load != null) {
+                    load.added(1);
+                }
+                try {
+                    annotateSentence(stage, text, sentences, i, documentName, listener);
+                } finally {
+                    if (load != null) {
+                        load.added(-1);
+                    }
+                }
+            }
+            return;
+        }
+        // set while a sentence still counts, so that each one leaves the load exactly once
+        AtomicBoolean[] counted = new AtomicBoolean[sentences.size()];
+        for (int i = 0; i < counted.length; i++) {
+            counted[i] = new AtomicBoolean(load != null);
+        }
+        if (load != null) {
+            load.added(counted.length);
+        }
+        List<Integer> order = SentenceScheduler.order(sentences, this.stageNames[stage], this.parsers[stage],
+                this.schedule);
+        List<Future<?>> parsed = new ArrayList<>();
+        try {
+            for (int i : order) {
+                parsed.add(this.sentenceThreads.submit(() -> {
+                    try {
+                        annotateSentence(stage, text, sentences, i, documentName, listener);
+                    } finally {
+                        leave(load, counted[i]);
+                    }
+                }));
+            }
+            for (Future<?> sentence : parsed) {
+                sentence.get();
+            }
+        } catch (InterruptedException e) {
+            for (Future<?> sentence : parsed) {
+                sentence.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the sentences to be parsed", e);
+        } catch (ExecutionException e) {
+            for (Future<?> sentence : parsed) {
+                sentence.cancel(true);
+            }
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+                    : new RuntimeException(e.getCause());
+        } finally {
+            // the sentences cancelled before they started
+            for (AtomicBoolean sentence : counted) {
+                leave(load, sentence);
+            }
+        }
+    }
+
+    private static void leave(AdaptiveParser load, AtomicBoolean counted) {
+        if (counted.getAndSet(false)) {
+            load.added(-1);
+        }
+    }
+
+    private void annotateSentence(int stage, String text, List<CoreMap> sentences, int i, String documentName,
+                                  SentenceListener listener) {
+        CoreMap sentence = sentences.get(i);
+        List<CoreLabel> tokens = sentence.get(CoreAnnotations.TokensAnnotation.class);
+        SentenceParseEvent event = new SentenceParseEvent();
+        event.begin();
+        boolean adaptive = this.srStage != null && this.stageNames[stage].equals("parse");
+        StanfordCoreNLP annotator = this.stages[stage];
+        String parser = this.parsers[stage];
+        long start = System.nanoTime();
+        try {
+            if (adaptive) {
+                String choice = this.adaptiveParser.choose(tokens.size());
+                sentence.set(AdaptiveParser.ParserAnnotation.class, choice);
+                if (choice.equals(AdaptiveParser.SR)) {
+                    annotator = this.srStage;
+                    parser = this.srStage.getProperties().getProperty("parse.model");
+                }
+            }
+            if (this.workerPools[stage] != null) {
+                event.outcome = this.workerPools[stage].annotate(sentence) ? "ok" : "workerFailed";
+            } else {
+                Annotation single = new Annotation(text);
+                single.set(CoreAnnotations.TokensAnnotation.class, tokens);
+                single.set(CoreAnnotations.SentencesAnnotation.class, Collections.singletonList(sentence));
+                annotator.annotate(single);
+                event.outcome = "ok";
+            }
+            if (listener != null) {
+                listener.sentenceParsed(this.stageNames[stage], parser, sentence, System.nanoTime() - start);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for a parser worker", e);
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.documentName = documentName;
+                event.stage = this.stageNames[stage];
+                event.parser = parser;
+                event.sentenceIndex = i;
+                event.sentenceLength = tokens.size();
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * The length limit of the PCFG parser at the current load, or -1 if the parser isn't chosen per sentence.
+     */
+    public int getAdaptiveLengthLimit() {
+        return this.adaptiveParser == null ? -1 : this.adaptiveParser.getLengthLimit();
+    }
+
+    public List<String> getStageNames() {
+        return Collections.unmodifiableList(Arrays.asList(this.stageNames));
+    }
+
+    /**
+     * The cached pipeline for a set of properties, leased from {@link #get} until it is closed.
+     */
+    public static class Lease implements AutoCloseable {
+        private final StagedPipeline pipeline;
+        private final String key;
+        private final AtomicBoolean open = new AtomicBoolean(true);
+
+        private Lease(StagedPipeline pipeline, String key) {
+            this.pipeline = pipeline;
+            this.key = key;
+        }
+
+        /**
+         * Run all stages on the given annotation, timing each one.
+         */
+        public void annotate(Annotation document) {
+            annotate(document, null, null);
+        }
+
+        /**
+         * Run all stages on the given annotation, timing each one.
+         *
+         * @param document     the annotation to run the stages on
+         * @param documentName the name of the GATE document, for the flight recorder events
+         */
+        public void annotate(Annotation document, String documentName) {
+            annotate(document, documentName, null);
+        }
+
+        /**
+         * Run all stages on the given annotation, timing each one.
+         *
+         * @param document     the annotation to run the stages on
+         * @param documentName the name of the GATE document, for the flight recorder events
+         * @param listener     told how long each sentence took in the parse and depparse stages, may be null
+         */
+        public void annotate(Annotation document, String documentName, SentenceListener listener) {
+            if (!this.open.get()) {
+                throw new IllegalStateException("The pipeline lease is closed");
+            }
+            this.pipeline.annotateStages(document, documentName, listener);
+        }
+
+        public StagedPipeline getPipeline() {
+            return this.pipeline;
+        }
+
+        /** The cache key of the pipeline, for {@link #reload}. */
+        String getKey() {
+            return this.key;
+        }
+
+        /** The generation of the pipeline, for {@link #reload}: a rebuilt pipeline has a new one. */
+        long getGeneration() {
+            return this.pipeline.generation;
+        }
+
+        @Override
+        public void close() {
+            if (this.open.compareAndSet(true, false)) {
+                this.pipeline.release();
+            }
+        }
+    }
+
+    /**
+     * What a {@link #reload} did and how long it took. The heap figures are the heap in use at each point,
+     * without forcing a collection, so the growth while both sets of models were loaded is an estimate of their
+     * overlap.
+     */
+    public static class Reload {
+        private int pipelines;
+        private long buildNanos;
+        private long swapNanos;
+        private long drainNanos;
+        private long heapBefore;
+        private long heapBothLoaded;
+        private long heapAfter;
+
+        /** The number of pipelines replaced. */
+        public int getPipelines() {
+            return this.pipelines;
+        }
+
+        public double getBuildMillis() {
+            return this.buildNanos / 1e6;
+        }
+
+        /** How long the cache was locked to put the new pipelines in. */
+        public double getSwapMillis() {
+            return this.swapNanos / 1e6;
+        }
+
+        /** How long the documents on the old pipelines took to finish. */
+        public double getDrainMillis() {
+            return this.drainNanos / 1e6;
+        }
+
+        /** The growth of the heap in use while the old and new models were both loaded. */
+        public long getOverlapBytes() {
+            return Math.max(0, this.heapBothLoaded - this.heapBefore);
+        }
+
+        public long getHeapBefore() {
+            return this.heapBefore;
+        }
+
+        public long getHeapBothLoaded() {
+            return this.heapBothLoaded;
+        }
+
+        public long getHeapAfter() {
+            return this.heapAfter;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d pipelines, built in %.0f ms, swapped in %.3f ms, drained in %.0f ms,"
+                            + " heap %d MB before, %d MB with both loaded (+%d MB overlap), %d MB after",
+                    this.pipelines, getBuildMillis(), getSwapMillis(), getDrainMillis(), this.heapBefore >> 20,
+                    this.heapBothLoaded >> 20, getOverlapBytes() >> 20, this.heapAfter >> 20);
+        }
+    }
+
+    /**
+     * Receives the time taken by each sentence in the parse and depparse stages.
+     */
+    public interface SentenceListener {
+        void sentenceParsed(String stage, String parser, CoreMap sentence, long elapsedNanos);
+    }
+}
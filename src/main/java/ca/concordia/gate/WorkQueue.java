@@ -0,0 +1,211 @@
+package ca.concordia.gate;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A work queue shared by several processes through a directory, used to split a corpus between
+ * {@link ShardWorker}s.
+ * <p>
+ * Each task is a file of document names, one per line. A task moves from pending/ to claimed/ when a worker
+ * takes it, and to done/ when the worker has written all its documents. Every move is an atomic rename within
+ * one file system, so two workers can never claim the same task, and the directory can live on a shared file
+ * system to spread the work over several hosts. A worker keeps its claims fresh by touching them; claims of
+ * a worker that died, or that went stale, are moved back to pending/ so another worker picks them up.
+ */
+public class WorkQueue {
+
+    private static final String CLAIM_SEPARATOR = "@";
+
+    private final File pending;
+    private final File claimed;
+    private final File done;
+
+    public WorkQueue(File dir) {
+        this.pending = new File(dir, "pending");
+        this.claimed = new File(dir, "claimed");
+        this.done = new File(dir, "done");
+    }
+
+    /**
+     * Create an empty queue in the directory, replacing anything that was there, and fill it with tasks of up to
+     * taskSize names each. Returns the number of tasks.
+     */
+    public static int create(File dir, Iterable<String> names, int taskSize) throws IOException {
+        deleteRecursively(dir.toPath());
+        WorkQueue queue = new WorkQueue(dir);
+        for (File subdir : Arrays.asList(queue.pending, queue.claimed, queue.done)) {
+            Files.createDirectories(subdir.toPath());
+        }
+        int tasks = 0;
+        List<String> task = new ArrayList<>(taskSize);
+        for (String name : names) {
+            task.add(name);
+            if (task.size() == taskSize) {
+                queue.add(String.format("task-%08d", tasks++), task);
+                task.clear();
+            }
+        }
+        if (!task.isEmpty()) {
+            queue.add(String.format("task-%08d", tasks++), task);
+        }
+        return tasks;
+    }
+
+    private void add(String taskName, List<String> names) throws IOException {
+        // written beside the queue and renamed in, so a worker never reads half a task
+        Path partial = this.pending.toPath().resolveSibling(taskName + ".part");
+        Files.write(partial, names, StandardCharsets.UTF_8);
+        Files.move(partial, this.pending.toPath().resolve(taskName), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * A task claimed by a worker.
+     */
+    public static class Task {
+        private final String name;
+        private final Path file;
+        private final List<String> documents;
+
+        Task(String name, Path file, List<String> documents) {
+            this.name = name;
+            this.file = file;
+            this.documents = documents;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        /** The names of the task's documents. */
+        public List<String> getDocuments() {
+            return this.documents;
+        }
+    }
+
+    /**
+     * Claim a pending task for the given worker, or return null if none is pending.
+     */
+    public Task claim(String workerId) throws IOException {
+        if (workerId.contains(CLAIM_SEPARATOR)) {
+            throw new IllegalArgumentException("Worker ids cannot contain " + CLAIM_SEPARATOR);
+        }
+        for (String taskName : list(this.pending)) {
+            Path task = this.pending.toPath().resolve(taskName);
+            Path claim = this.claimed.toPath().resolve(workerId + CLAIM_SEPARATOR + taskName);
+            // touched before the rename, which keeps the time, so the claim is never stale from the start
+            task.toFile().setLastModified(System.currentTimeMillis());
+            try {
+                Files.move(task, claim, StandardCopyOption.ATOMIC_MOVE);
+                return new Task(taskName, claim, Files.readAllLines(claim, StandardCharsets.UTF_8));
+            } catch (NoSuchFileException | FileAlreadyExistsException e) {
+                // another worker renamed it first, or the claim was put back before it could be read
+                continue;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Show that the task's worker is still alive.
+     */
+    public void heartbeat(Task task) {
+        task.file.toFile().setLastModified(System.currentTimeMillis());
+    }
+
+    /**
+     * Mark the task as done.
+     */
+    public void complete(Task task) throws IOException {
+        Files.move(task.file, this.done.toPath().resolve(task.name), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Put the tasks claimed by the given worker back in the queue, e.g. after its process died. Returns the number of
+     * tasks put back.
+     */
+    public int requeue(String workerId) throws IOException {
+        int requeued = 0;
+        for (String claim : list(this.claimed)) {
+            if (claim.startsWith(workerId + CLAIM_SEPARATOR) && release(claim)) {
+                requeued++;
+            }
+        }
+        return requeued;
+    }
+
+    /**
+     * Put back the claims that have not had a heartbeat for the given time. Returns the number of tasks put back.
+     */
+    public int requeueStale(long timeoutMillis) throws IOException {
+        int requeued = 0;
+        long limit = System.currentTimeMillis() - timeoutMillis;
+        for (String claim : list(this.claimed)) {
+            File file = new File(this.claimed, claim);
+            long modified = file.lastModified();
+            if (modified != 0 && modified < limit && release(claim)) {
+                requeued++;
+            }
+        }
+        return requeued;
+    }
+
+    private boolean release(String claim) throws IOException {
+        String taskName = claim.substring(claim.indexOf(CLAIM_SEPARATOR) + 1);
+        try {
+            Files.move(this.claimed.toPath().resolve(claim), this.pending.toPath().resolve(taskName),
+                    StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (NoSuchFileException e) {
+            // completed or released in the meantime
+            return false;
+        }
+    }
+
+    public int getPendingCount() {
+        return list(this.pending).size();
+    }
+
+    public int getClaimedCount() {
+        return list(this.claimed).size();
+    }
+
+    public int getDoneCount() {
+        return list(this.done).size();
+    }
+
+    /**
+     * True when every task is done.
+     */
+    public boolean isDrained() {
+        return list(this.pending).isEmpty() && list(this.claimed).isEmpty();
+    }
+
+    private static List<String> list(File dir) {
+        String[] names = dir.list();
+        if (names == null) {
+            return new ArrayList<>();
+        }
+        Arrays.sort(names);
+        return Arrays.asList(names);
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        if (Files.isDirectory(path)) {
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(path)) {
+                for (Path child : children) {
+                    deleteRecursively(child);
+                }
+            }
+        }
+        Files.delete(path);
+    }
+}
@@ -0,0 +1,122 @@
+package ca.concordia.gate;
+
+import edu.stanford.nlp.international.Language;
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.ling.IndexedWord;
+import edu.stanford.nlp.semgraph.SemanticGraph;
+import edu.stanford.nlp.trees.GrammaticalRelation;
+import edu.stanford.nlp.trees.Tree;
+import gate.Document;
+import gate.Factory;
+import gate.FeatureMap;
+import gate.creole.ResourceInstantiationException;
+import gate.util.InvalidOffsetException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fixed, pre-parsed input for exercising the GATE conversion code without loading any model.
+ *
+ * The document is one sentence repeated the given number of times, with a hand-written
+ * constituency tree and basic dependency graph for every copy.
+ */
+public class ConversionFixtures {
+
+  static final String[] WORDS = {"The", "quick", "brown", "fox", "jumped", "over", "the", "lazy", "dog", "."};
+  static final String[] POS = {"DT", "JJ", "JJ", "NN", "VBD", "IN", "DT", "JJ", "NN", "."};
+  static final String TREE = "(ROOT (S (NP (DT The) (JJ quick) (JJ brown) (NN fox)) "
+          + "(VP (VBD jumped) (PP (IN over) (NP (DT the) (JJ lazy) (NN dog)))) (. .)))";
+  /** 1-based index of the head of each word, 0 for the root. */
+  static final int[] HEADS = {4, 4, 4, 5, 0, 9, 9, 9, 5, 5};
+  static final String[] RELATIONS = {"det", "amod", "amod", "nsubj", "root", "case", "det", "amod", "obl", "punct"};
+
+  public final String text;
+  public final List<List<CoreLabel>> tokens = new ArrayList<>();
+  public final List<List<String>> posTags = new ArrayList<>();
+  public final List<Tree> trees = new ArrayList<>();
+  public final List<SemanticGraph> graphs = new ArrayList<>();
+
+  public ConversionFixtures(int sentences) {
+    StringBuilder text = new StringBuilder();
+    for (int s = 0; s < sentences; s++) {
+      List<CoreLabel> sentenceTokens = new ArrayList<>();
+      List<String> sentencePos = new ArrayList<>();
+      for (int i = 0; i < WORDS.length; i++) {
+        if (text.length() > 0) {
+          text.append(' ');
+        }
+        int start = text.length();
+        text.append(WORDS[i]);
+        CoreLabel token = AnnotationHandoff.tokenLabel(WORDS[i], start, text.length());
+        token.setIndex(i + 1);
+        token.setSentIndex(s);
+        token.set(CoreAnnotations.PartOfSpeechAnnotation.class, POS[i]);
+        sentenceTokens.add(token);
+        sentencePos.add(POS[i]);
+      }
+      this.tokens.add(sentenceTokens);
+      this.posTags.add(sentencePos);
+      this.trees.add(Tree.valueOf(TREE));
+      this.graphs.add(graph(sentenceTokens));
+    }
+    this.text = text.toString();
+  }
+
+  private static SemanticGraph graph(List<CoreLabel> sentenceTokens) {
+    SemanticGraph graph = new SemanticGraph();
+    List<IndexedWord> words = new ArrayList<>();
+    for (CoreLabel token : sentenceTokens) {
+      IndexedWord word = new IndexedWord(token);
+      words.add(word);
+      graph.addVertex(word);
+    }
+    for (int i = 0; i < words.size(); i++) {
+      if (HEADS[i] == 0) {
+        graph.setRoot(words.get(i));
+      } else {
+        graph.addEdge(words.get(HEADS[i] - 1), words.get(i),
+                GrammaticalRelation.valueOf(Language.UniversalEnglish, RELATIONS[i]), 1.0, false);
+      }
+    }
+    return graph;
+  }
+
+  /** The number of tokens in the document. */
+  public int tokenCount() {
+    return this.tokens.size() * WORDS.length;
+  }
+
+  /** A new GATE document holding the fixture text and nothing else. */
+  public Document newDocument() throws ResourceInstantiationException {
+    return Factory.newDocument(this.text);
+  }
+
+  /** A new GATE document holding plain Token annotations, as CoreTokenizer leaves them. */
+  public Document newTokenizedDocument() throws ResourceInstantiationException, InvalidOffsetException {
+    Document document = newDocument();
+    for (List<CoreLabel> sentenceTokens : this.tokens) {
+      for (CoreLabel token : sentenceTokens) {
+        FeatureMap features = Factory.newFeatureMap();
+        features.put("string", token.word());
+        document.getAnnotations().add((long) token.beginPosition(), (long) token.endPosition(), "Token", features);
+      }
+    }
+    return document;
+  }
+
+  /** A new GATE document holding Token annotations with dependencies, as CoreNLP leaves them. */
+  public Document newParsedDocument() throws ResourceInstantiationException {
+    Document document = newDocument();
+    CoreNLP parser = new CoreNLP();
+    List<DependencyAnn> dependencies = new ArrayList<>();
+    int sentenceOffset = 1;
+    for (int s = 0; s < this.graphs.size(); s++) {
+      parser.addTokensWithDependencies(this.graphs.get(s), this.posTags.get(s), sentenceOffset,
+              document.getAnnotations(), dependencies);
+      sentenceOffset += WORDS.length + 1;
+    }
+    return document;
+  }
+}
@@ -0,0 +1,40 @@
+package ca.concordia.gate;
+
+import gate.Document;
+import gate.Factory;
+import gate.test.GATEPluginTests;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that the text of a handed-off annotation is shared until the document content is edited, and that
+ * the annotation itself is only handed out while the tokens are unchanged.
+ */
+public class TestAnnotationHandoff extends GATEPluginTests {
+
+  @Test
+  public void testTextIsSharedUntilTheContentIsEdited() throws Exception {
+    Document document = Factory.newDocument("The quick brown fox.");
+    try {
+      String text = AnnotationHandoff.text(document);
+      edu.stanford.nlp.pipeline.Annotation annotation = new edu.stanford.nlp.pipeline.Annotation(text);
+      AnnotationHandoff.put(document, annotation, new HashMap<>());
+      assertSame(annotation, AnnotationHandoff.get(document).getAnnotation());
+      assertSame(text, AnnotationHandoff.text(document));
+
+      // another PR adds a token: the annotation is stale, its text is not
+      document.getAnnotations().add(0L, 3L, "Token", Factory.newFeatureMap());
+      assertNull(AnnotationHandoff.get(document));
+      assertSame(text, AnnotationHandoff.text(document));
+
+      document.edit(0L, 3L, new gate.corpora.DocumentContentImpl("A"));
+      assertEquals("A quick brown fox.", AnnotationHandoff.text(document));
+      assertNull(AnnotationHandoff.get(document));
+    } finally {
+      Factory.deleteResource(document);
+    }
+  }
+}
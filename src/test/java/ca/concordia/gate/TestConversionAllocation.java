@@ -0,0 +1,169 @@
+package ca.concordia.gate;
+
+import edu.stanford.nlp.trees.Tree;
+import gate.AnnotationSet;
+import gate.Document;
+import gate.Factory;
+import gate.test.GATEPluginTests;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Allocation budgets for the code that turns CoreNLP output into GATE annotations.
+ *
+ * Each test runs one conversion path over {@link ConversionFixtures} a few times to warm up,
+ * then measures the bytes allocated by the current thread (through the HotSpot ThreadMXBean)
+ * and fails if the best of several runs goes over its per-token or per-tree-node budget.
+ * Each budget sits about 1.5 times above what its path allocates today, so a new per-token
+ * structure or an accidental quadratic copy trips it while JVM and GATE version drift does not.
+ * When a change legitimately needs more, raise the budget in the same commit and say why.
+ */
+public class TestConversionAllocation extends GATEPluginTests {
+
+  private static final int SENTENCES = 50;
+  private static final int WARMUP_RUNS = 3;
+  private static final int MEASURED_RUNS = 5;
+
+  /** Token + Dependency annotations, their feature maps and the dependency lists: about 2 KB today. */
+  static final long DEPENDENCY_LOOP_BYTES_PER_TOKEN = 3 * 1024;
+  /** SyntaxTreeNode annotation, feature map, children list and span of every node: about 650 bytes today. */
+  static final long SYNTAX_TREE_BYTES_PER_NODE = 1024;
+  /** CoreLabel, offset map entry and the share of the sort: about 500 bytes today. */
+  static final long ADD_TOKENS_BYTES_PER_TOKEN = 768;
+  /** DependencyTreeNode annotation, feature map and map entries, plus removing the last run's: about 2 KB today. */
+  static final long DEPENDENCY_NODES_BYTES_PER_TOKEN = 3 * 1024;
+
+  private ConversionFixtures fixtures;
+  private final List<Document> documents = new ArrayList<>();
+
+  @Before
+  public void setUp() {
+    com.sun.management.ThreadMXBean threads = threadMXBean();
+    assumeTrue(threads != null && threads.isThreadAllocatedMemorySupported());
+    threads.setThreadAllocatedMemoryEnabled(true);
+    this.fixtures = new ConversionFixtures(SENTENCES);
+  }
+
+  @After
+  public void tearDown() {
+    for (Document document : this.documents) {
+      Factory.deleteResource(document);
+    }
+  }
+
+  @Test
+  public void testDependencyLoopBudget() throws Exception {
+    CoreNLP parser = new CoreNLP();
+    Document document = track(this.fixtures.newDocument());
+    long bytes = measure(() -> {
+      AnnotationSet outputAS = freshSet(document);
+      List<DependencyAnn> dependencyAnnList = new ArrayList<>();
+      int sentenceOffset = 1;
+      for (int s = 0; s < SENTENCES; s++) {
+        parser.addTokensWithDependencies(this.fixtures.graphs.get(s), this.fixtures.posTags.get(s),
+                sentenceOffset, outputAS, dependencyAnnList);
+        sentenceOffset += ConversionFixtures.WORDS.length + 1;
+      }
+      for (DependencyAnn depAnn : dependencyAnnList) {
+        outputAS.add(depAnn.startOffset, depAnn.endOffset, "Dependency", depAnn.featureMap);
+      }
+    });
+    assertWithinBudget("dependency loop", bytes, this.fixtures.tokenCount(), DEPENDENCY_LOOP_BYTES_PER_TOKEN);
+  }
+
+  @Test
+  public void testSyntaxTreeNodeBudget() throws Exception {
+    CoreNLP parser = new CoreNLP();
+    Document document = track(this.fixtures.newDocument());
+    int nodes = 0;
+    for (Tree tree : this.fixtures.trees) {
+      nodes += tree.preOrderNodeList().size();
+    }
+    long bytes = measure(() -> {
+      AnnotationSet outputAS = freshSet(document);
+      int sentenceOffset = 1;
+      for (int s = 0; s < SENTENCES; s++) {
+        Tree tree = this.fixtures.trees.get(s);
+        List<Tree> nodeOrdering = tree.preOrderNodeList();
+        parser.createSyntaxTreeNode(tree, this.fixtures.tokens.get(s), tree.getLeaves(), nodeOrdering,
+                sentenceOffset, outputAS);
+        sentenceOffset += nodeOrdering.size() + 1;
+      }
+    });
+    assertWithinBudget("createSyntaxTreeNode", bytes, nodes, SYNTAX_TREE_BYTES_PER_NODE);
+  }
+
+  @Test
+  public void testAddTokensBudget() throws Exception {
+    Document document = track(this.fixtures.newTokenizedDocument());
+    long bytes = measure(() -> {
+      // a new PR each run, as addTokens fills the PR's offset map and asserts it starts empty
+      CoreNLP parser = new CoreNLP();
+      parser.setDocument(document);
+      parser.addTokens(new edu.stanford.nlp.pipeline.Annotation(this.fixtures.text));
+    });
+    assertWithinBudget("addTokens", bytes, this.fixtures.tokenCount(), ADD_TOKENS_BYTES_PER_TOKEN);
+  }
+
+  @Test
+  public void testDependencyNodeGeneratorBudget() throws Exception {
+    Document document = track(this.fixtures.newParsedDocument());
+    DependencyNodeGenerator generator = new DependencyNodeGenerator();
+    generator.setDocument(document);
+    long bytes = measure(() -> {
+      AnnotationSet inputAS = document.getAnnotations();
+      inputAS.removeAll(new ArrayList<>(inputAS.get("DependencyTreeNode")));
+      generator.execute();
+    });
+    assertWithinBudget("DependencyNodeGenerator", bytes, this.fixtures.tokenCount(), DEPENDENCY_NODES_BYTES_PER_TOKEN);
+  }
+
+  private interface Conversion {
+    void run() throws Exception;
+  }
+
+  /** The fewest bytes the current thread allocated in one run of the conversion, after warming up. */
+  private static long measure(Conversion conversion) throws Exception {
+    com.sun.management.ThreadMXBean threads = threadMXBean();
+    long threadId = Thread.currentThread().getId();
+    for (int i = 0; i < WARMUP_RUNS; i++) {
+      conversion.run();
+    }
+    long best = Long.MAX_VALUE;
+    for (int i = 0; i < MEASURED_RUNS; i++) {
+      long before = threads.getThreadAllocatedBytes(threadId);
+      conversion.run();
+      best = Math.min(best, threads.getThreadAllocatedBytes(threadId) - before);
+    }
+    return best;
+  }
+
+  private static void assertWithinBudget(String path, long bytes, int units, long budgetPerUnit) {
+    long perUnit = bytes / units;
+    assertTrue(path + " allocated " + perUnit + " bytes per unit, budget is " + budgetPerUnit,
+            perUnit <= budgetPerUnit);
+  }
+
+  private static AnnotationSet freshSet(Document document) {
+    document.removeAnnotationSet("allocation");
+    return document.getAnnotations("allocation");
+  }
+
+  private Document track(Document document) {
+    this.documents.add(document);
+    return document;
+  }
+
+  private static com.sun.management.ThreadMXBean threadMXBean() {
+    java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    return threads instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean) threads : null;
+  }
+}
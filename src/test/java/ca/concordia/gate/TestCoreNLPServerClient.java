@@ -0,0 +1,126 @@
+package ca.concordia.gate;
+
+import gate.*;
+import gate.test.GATEPluginTests;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Starts a StanfordCoreNLPServer in a child JVM and checks that the client mode of the CoreNLP PR produces the
+ * same Sentence and Token annotations as the in-process pipeline, including for documents batched together,
+ * and the same SyntaxTreeNode and Dependency annotations when parsing.
+ */
+public class TestCoreNLPServerClient extends GATEPluginTests {
+
+  private static final String[] TEXTS = {
+      "The quick brown fox jumps over the lazy dog. It was not amused.",
+      "Dr. Smith arrived at 5 p.m.\n\nShe left early.",
+      "Short one.",
+      "Prices rose 3.5% in May, the fastest pace since 2008."
+  };
+
+  private Process server;
+  private String url;
+
+  @Before
+  public void startServer() throws Exception {
+    int port;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    String java = new File(System.getProperty("java.home"), "bin/java").getPath();
+    this.server = new ProcessBuilder(java, "-Xmx2g", "-cp", System.getProperty("java.class.path"),
+            "edu.stanford.nlp.pipeline.StanfordCoreNLPServer", "-port", String.valueOf(port), "-quiet",
+            "-timeout", "60000").inheritIO().start();
+    this.url = "http://localhost:" + port;
+    long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(2);
+    while (true) {
+      try (Socket socket = new Socket("localhost", port)) {
+        break;
+      } catch (IOException e) {
+        assertTrue("CoreNLP server did not start", this.server.isAlive() && System.nanoTime() < deadline);
+        Thread.sleep(200);
+      }
+    }
+  }
+
+  @After
+  public void stopServer() throws InterruptedException {
+    this.server.destroy();
+    this.server.waitFor(10, TimeUnit.SECONDS);
+  }
+
+  @Test
+  public void testServerMatchesInProcess() throws Exception {
+    List<List<String>> expected = new ArrayList<>();
+    for (String text : TEXTS) {
+      expected.add(annotate(text, null, false));
+    }
+    // documents annotated at the same time from several threads are batched into fewer requests
+    ExecutorService threads = Executors.newFixedThreadPool(TEXTS.length);
+    try {
+      List<Future<List<String>>> actual = new ArrayList<>();
+      for (String text : TEXTS) {
+        actual.add(threads.submit(() -> annotate(text, this.url, false)));
+      }
+      for (int i = 0; i < TEXTS.length; i++) {
+        assertEquals(TEXTS[i], expected.get(i), actual.get(i).get());
+      }
+    } finally {
+      threads.shutdown();
+    }
+    CoreNLPServerClient client = CoreNLPServerClient.get(this.url, 4, 2000, 500, 10000, 600000);
+    assertEquals(TEXTS.length, client.getDocuments());
+    assertTrue("requests: " + client.getRequests(), client.getRequests() < TEXTS.length);
+  }
+
+  @Test
+  public void testParsedServerMatchesInProcess() throws Exception {
+    for (String text : TEXTS) {
+      List<String> expected = annotate(text, null, true);
+      List<String> actual = annotate(text, this.url, true);
+      assertTrue(text, expected.stream().anyMatch(annotation -> annotation.startsWith("SyntaxTreeNode ")));
+      assertTrue(text, expected.stream().anyMatch(annotation -> annotation.startsWith("Dependency ")));
+      assertEquals(text, expected, actual);
+    }
+  }
+
+  /**
+   * Run a tokenizing, POS tagging and, if parse is set, parsing CoreNLP PR on the text, on the given server or
+   * in process if it is null, and return its annotations and their features as sorted strings.
+   */
+  private static List<String> annotate(String text, String serverUrl, boolean parse) throws Exception {
+    FeatureMap params = Factory.newFeatureMap();
+    params.put("includeParse", parse);
+    if (serverUrl != null) {
+      params.put("serverUrl", serverUrl);
+      params.put("serverBatchWait", 500);
+    }
+    LanguageAnalyser pr = (LanguageAnalyser) Factory.createResource("ca.concordia.gate.CoreNLP", params);
+    Document document = Factory.newDocument(text);
+    try {
+      pr.setDocument(document);
+      pr.execute();
+      List<String> annotations = new ArrayList<>();
+      for (Annotation annotation : document.getAnnotations()) {
+        annotations.add(annotation.getType() + " " + annotation.getStartNode().getOffset() + " "
+                + annotation.getEndNode().getOffset() + " " + new TreeMap<>(annotation.getFeatures()));
+      }
+      Collections.sort(annotations);
+      return annotations;
+    } finally {
+      Factory.deleteResource(document);
+      Factory.deleteResource(pr);
+    }
+  }
+}
@@ -0,0 +1,80 @@
+package ca.concordia.gate;
+
+import gate.*;
+import gate.test.GATEPluginTests;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that CoreSegmenter gives the same Token and Sentence annotations as CoreTokenizer followed by
+ * CoreSentenceSplitter, including where sentences are split at newlines and blank lines, and that the tokens it
+ * hands over tag the same as those of the chain.
+ */
+public class TestCoreSegmenter extends GATEPluginTests {
+
+  private static final String[] TEXTS = {
+      "The quick brown fox jumps over the lazy dog. It was not amused.",
+      "Dr. Smith arrived at 5 p.m. on Jan. 3rd, didn't he?",
+      "A heading without a period\n\nThe first paragraph starts here. It goes on.\nAnd a new line here.",
+      "One line\nanother line\n\n\nafter several blank lines",
+      "  Leading spaces, \"quotes\" and (brackets) -- then 3.5% more.  "
+  };
+
+  @Test
+  public void testSegmenterMatchesTwoPrChain() throws Exception {
+    for (String text : TEXTS) {
+      assertEquals(text, annotate(text, "ca.concordia.gate.CoreTokenizer", "ca.concordia.gate.CoreSentenceSplitter"),
+              annotate(text, "ca.concordia.gate.CoreSegmenter"));
+    }
+  }
+
+  @Test
+  public void testSegmenterHandoffTagsLikeTwoPrChain() throws Exception {
+    for (String text : TEXTS) {
+      assertEquals(text, annotate(text, "ca.concordia.gate.CoreTokenizer", "ca.concordia.gate.CoreSentenceSplitter",
+              TAGGER), annotate(text, "ca.concordia.gate.CoreSegmenter", TAGGER));
+    }
+  }
+
+  /** The New Stanford Parser, tagging the tokens and sentences of the earlier PRs without parsing. */
+  private static final String TAGGER = "tagger";
+
+  /**
+   * Run the given PRs in turn on the text and return its annotations, without their ids, as sorted strings.
+   */
+  private static List<String> annotate(String text, String... prClasses) throws Exception {
+    List<LanguageAnalyser> prs = new ArrayList<>();
+    Document document = Factory.newDocument(text);
+    try {
+      for (String prClass : prClasses) {
+        LanguageAnalyser pr;
+        if (prClass.equals(TAGGER)) {
+          FeatureMap params = Factory.newFeatureMap();
+          params.put("includeTokenizer", false);
+          params.put("includeParse", false);
+          pr = (LanguageAnalyser) Factory.createResource("ca.concordia.gate.CoreNLP", params);
+        } else {
+          pr = (LanguageAnalyser) Factory.createResource(prClass);
+        }
+        prs.add(pr);
+        pr.setDocument(document);
+        pr.execute();
+      }
+      List<String> annotations = new ArrayList<>();
+      for (Annotation annotation : document.getAnnotations()) {
+        annotations.add(annotation.getType() + " " + annotation.getStartNode().getOffset() + " "
+                + annotation.getEndNode().getOffset() + " " + new TreeMap<>(annotation.getFeatures()));
+      }
+      Collections.sort(annotations);
+      return annotations;
+    } finally {
+      Factory.deleteResource(document);
+      for (LanguageAnalyser pr : prs) {
+        Factory.deleteResource(pr);
+      }
+    }
+  }
+}
@@ -0,0 +1,55 @@
+package ca.concordia.gate;
+
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.util.ArrayCoreMap;
+import edu.stanford.nlp.util.CoreMap;
+import gate.util.GateRuntimeException;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Starts a {@link ParserWorkerPool} whose worker cannot load its model, and checks that the sentence fails
+ * instead of getting a fallback tree, and that later sentences fail without starting another worker.
+ */
+public class TestParserWorkerPool {
+
+  @Test
+  public void testWorkerThatCannotLoadItsModelFails() throws Exception {
+    Properties props = new Properties();
+    props.setProperty(ParserWorkerPool.COUNT_PROPERTY, "1");
+    props.setProperty("parse.model", "no/such/model.ser.gz");
+    ParserWorkerPool pool = new ParserWorkerPool("parse", props);
+    try {
+      CoreMap sentence = sentence();
+      try {
+        pool.annotate(sentence);
+        fail("a worker without a model parsed a sentence");
+      } catch (GateRuntimeException expected) {
+        assertTrue(expected.getMessage(), expected.getMessage().contains("could not load its model"));
+      }
+      assertNull(sentence.get(edu.stanford.nlp.trees.TreeCoreAnnotations.TreeAnnotation.class));
+      try {
+        pool.annotate(sentence());
+        fail("a worker without a model parsed a sentence");
+      } catch (GateRuntimeException expected) {
+        // failed at once
+      }
+      assertEquals(0, pool.getRestarts());
+      assertEquals(0, pool.getFailures());
+    } finally {
+      pool.close();
+    }
+  }
+
+  private static CoreMap sentence() {
+    CoreLabel token = AnnotationHandoff.tokenLabel("word", 0, 4);
+    token.setIndex(1);
+    CoreMap sentence = new ArrayCoreMap();
+    sentence.set(CoreAnnotations.TokensAnnotation.class, new ArrayList<>(Collections.singletonList(token)));
+    return sentence;
+  }
+}
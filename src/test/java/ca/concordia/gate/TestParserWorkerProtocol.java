@@ -0,0 +1,124 @@
+package ca.concordia.gate;
+
+import edu.stanford.nlp.international.Language;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.ling.IndexedWord;
+import edu.stanford.nlp.semgraph.SemanticGraph;
+import edu.stanford.nlp.semgraph.SemanticGraphEdge;
+import edu.stanford.nlp.trees.GrammaticalRelation;
+import edu.stanford.nlp.trees.Tree;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Sends trees and dependency graphs through the {@link ParserWorker} wire format over a pipe, as a worker and
+ * its {@link ParserWorkerPool} do, and checks that what comes out equals what went in.
+ */
+public class TestParserWorkerProtocol {
+
+  private ParserWorkerPool pool;
+  private List<CoreLabel> tokens;
+  private List<IndexedWord> words;
+  private DataOutputStream out;
+  private DataInputStream in;
+
+  @Before
+  public void setUp() throws IOException {
+    Properties props = new Properties();
+    props.setProperty(ParserWorkerPool.COUNT_PROPERTY, "0");
+    this.pool = new ParserWorkerPool("depparse", props);
+    ConversionFixtures fixtures = new ConversionFixtures(1);
+    this.tokens = fixtures.tokens.get(0);
+    this.words = new ArrayList<>();
+    for (CoreLabel token : this.tokens) {
+      this.words.add(new IndexedWord(token));
+    }
+    // large enough that writing everything before reading never blocks this single thread
+    PipedInputStream pipe = new PipedInputStream(1 << 16);
+    this.out = new DataOutputStream(new PipedOutputStream(pipe));
+    this.in = new DataInputStream(pipe);
+  }
+
+  @Test
+  public void testTreeRoundTrip() throws IOException {
+    Tree tree = Tree.valueOf(ConversionFixtures.TREE);
+    ParserWorker.writeTree(this.out, tree);
+    ParserWorker.writeTree(this.out, null);
+    this.out.flush();
+    assertEquals(1, this.in.readByte());
+    Tree read = ParserWorkerPool.readTree(this.in);
+    assertEquals(tree, read);
+    assertEquals(tree.preOrderNodeList().size(), read.preOrderNodeList().size());
+    assertEquals(0, this.in.readByte());
+  }
+
+  @Test
+  public void testGraphRoundTrip() throws IOException {
+    SemanticGraph graph = new SemanticGraph();
+    for (IndexedWord word : this.words) {
+      graph.addVertex(word);
+    }
+    // "jumped" heads the sentence, and "dog" is a second root, as in some enhanced graphs
+    graph.setRoots(Arrays.asList(this.words.get(4), this.words.get(8)));
+    for (int i = 0; i < this.words.size(); i++) {
+      int head = ConversionFixtures.HEADS[i];
+      if (head != 0) {
+        graph.addEdge(this.words.get(head - 1), this.words.get(i), relation(ConversionFixtures.RELATIONS[i]), 1.0,
+                false);
+      }
+    }
+    // a copy node for an elided verb, with an extra edge into it
+    IndexedWord copy = this.words.get(4).makeSoftCopy(1);
+    graph.addVertex(copy);
+    graph.addEdge(this.words.get(4), copy, relation("conj"), 1.0, false);
+    graph.addEdge(copy, this.words.get(3), relation("nsubj"), 1.0, true);
+    graph.addEdge(this.words.get(8), this.words.get(3), relation("ref"), 1.0, true);
+
+    ParserWorker.writeGraph(this.out, graph);
+    ParserWorker.writeGraph(this.out, null);
+    this.out.flush();
+    assertEquals(1, this.in.readByte());
+    SemanticGraph read = this.pool.readGraph(this.in, this.tokens);
+    assertEquals(0, this.in.readByte());
+
+    assertEquals(words(graph.vertexSet()), words(read.vertexSet()));
+    assertEquals(words(graph.getRoots()), words(read.getRoots()));
+    assertEquals(edges(graph), edges(read));
+    IndexedWord readCopy = read.getNodeByIndexAndCopyCount(5, 1);
+    assertNotNull(readCopy);
+    assertEquals(copy.word(), readCopy.word());
+    assertEquals(copy.beginPosition(), readCopy.beginPosition());
+  }
+
+  private static GrammaticalRelation relation(String name) {
+    return GrammaticalRelation.valueOf(Language.UniversalEnglish, name);
+  }
+
+  private static Set<String> words(Collection<IndexedWord> words) {
+    Set<String> result = new TreeSet<>();
+    for (IndexedWord word : words) {
+      result.add(word.index() + "." + word.copyCount() + " " + word.word());
+    }
+    return result;
+  }
+
+  private static List<String> edges(SemanticGraph graph) {
+    List<String> result = new ArrayList<>();
+    for (SemanticGraphEdge edge : graph.edgeIterable()) {
+      result.add(edge.getGovernor().index() + "." + edge.getGovernor().copyCount() + " " + edge.getRelation()
+              + " " + edge.getDependent().index() + "." + edge.getDependent().copyCount()
+              + (edge.isExtra() ? " extra" : ""));
+    }
+    Collections.sort(result);
+    return result;
+  }
+}
@@ -0,0 +1,144 @@
+package ca.concordia.gate;
+
+import edu.stanford.nlp.ling.CoreAnnotation;
+import edu.stanford.nlp.ling.CoreAnnotations;
+import edu.stanford.nlp.ling.CoreLabel;
+import edu.stanford.nlp.pipeline.Annotation;
+import edu.stanford.nlp.pipeline.Annotator;
+import edu.stanford.nlp.util.ArrayCoreMap;
+import edu.stanford.nlp.util.CoreMap;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs a {@link SentenceBatcher} over a stub annotator, which needs no model, and checks that the sentences
+ * of concurrent callers are all annotated and that closing the batcher releases the callers still waiting.
+ */
+public class TestSentenceBatcher {
+
+  private static final int CALLERS = 8;
+  private static final int SENTENCES = 5;
+
+  @Test
+  public void testConcurrentCallersAreAnnotated() throws Exception {
+    StubAnnotator annotator = new StubAnnotator(null);
+    SentenceBatcher batcher = new SentenceBatcher(annotator, 16, 20, 2);
+    ExecutorService callers = Executors.newFixedThreadPool(CALLERS);
+    try {
+      List<Future<List<CoreMap>>> results = new ArrayList<>();
+      for (int c = 0; c < CALLERS; c++) {
+        results.add(callers.submit(() -> {
+          List<CoreMap> sentences = sentences(SENTENCES);
+          batcher.annotate(sentences);
+          return sentences;
+        }));
+      }
+      for (Future<List<CoreMap>> result : results) {
+        for (CoreMap sentence : result.get(1, TimeUnit.MINUTES)) {
+          assertEquals("annotated", sentence.get(CoreAnnotations.SentenceIDAnnotation.class));
+        }
+      }
+      assertEquals(CALLERS * SENTENCES, batcher.getSentences());
+      assertTrue("batches: " + batcher.getBatches(), batcher.getBatches() < CALLERS * SENTENCES);
+    } finally {
+      callers.shutdownNow();
+      batcher.close();
+    }
+  }
+
+  @Test
+  public void testCloseFailsQueuedSentences() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    StubAnnotator annotator = new StubAnnotator(release);
+    // one thread and batches of one, so the second caller waits in the queue behind the first
+    SentenceBatcher batcher = new SentenceBatcher(annotator, 1, 0, 1);
+    ExecutorService callers = Executors.newFixedThreadPool(2);
+    try {
+      Future<?> running = callers.submit(() -> {
+        batcher.annotate(sentences(1));
+        return null;
+      });
+      assertTrue(annotator.started.await(1, TimeUnit.MINUTES));
+      Future<?> queued = callers.submit(() -> {
+        batcher.annotate(sentences(1));
+        return null;
+      });
+      // give the second caller time to queue its sentence
+      Thread.sleep(200);
+      batcher.close();
+      try {
+        queued.get(10, TimeUnit.SECONDS);
+        fail("a sentence queued when the batcher closed was annotated");
+      } catch (ExecutionException e) {
+        assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof RuntimeException);
+      }
+      // the batch already being annotated still finishes
+      release.countDown();
+      running.get(10, TimeUnit.SECONDS);
+      try {
+        batcher.annotate(sentences(1));
+        fail("annotate after close");
+      } catch (IllegalStateException expected) {
+        // closed
+      }
+    } finally {
+      release.countDown();
+      callers.shutdownNow();
+    }
+  }
+
+  private static List<CoreMap> sentences(int count) {
+    List<CoreMap> sentences = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      CoreLabel token = AnnotationHandoff.tokenLabel("word", 0, 4);
+      token.setIndex(1);
+      CoreMap sentence = new ArrayCoreMap();
+      sentence.set(CoreAnnotations.TokensAnnotation.class, new ArrayList<>(Collections.singletonList(token)));
+      sentences.add(sentence);
+    }
+    return sentences;
+  }
+
+  /**
+   * Marks every sentence of a batch, after waiting for the release latch if there is one.
+   */
+  private static class StubAnnotator implements Annotator {
+    private final CountDownLatch release;
+    private final CountDownLatch started = new CountDownLatch(1);
+
+    private StubAnnotator(CountDownLatch release) {
+      this.release = release;
+    }
+
+    @Override
+    public void annotate(Annotation annotation) {
+      this.started.countDown();
+      if (this.release != null) {
+        try {
+          this.release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      for (CoreMap sentence : annotation.get(CoreAnnotations.SentencesAnnotation.class)) {
+        sentence.set(CoreAnnotations.SentenceIDAnnotation.class, "annotated");
+      }
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes") // the raw type is in the Annotator interface
+    public Set<Class<? extends CoreAnnotation>> requirementsSatisfied() {
+      return Collections.emptySet();
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes") // the raw type is in the Annotator interface
+    public Set<Class<? extends CoreAnnotation>> requires() {
+      return Collections.emptySet();
+    }
+  }
+}
@@ -0,0 +1,110 @@
+package ca.concordia.gate;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs several local processes against one {@link WorkQueue}, as the shard workers do, and checks that every
+ * task is done exactly once, including the task of a process that died holding its claim.
+ */
+public class TestWorkQueue {
+
+  private static final int DOCUMENTS = 1000;
+  private static final int TASK_SIZE = 7;
+  private static final int PROCESSES = 3;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testProcessesShareTheQueue() throws Exception {
+    File queueDir = new File(this.folder.getRoot(), "queue");
+    List<String> names = new ArrayList<>();
+    for (int i = 0; i < DOCUMENTS; i++) {
+      names.add("dir" + (i % 10) + "/doc" + i + ".txt");
+    }
+    int tasks = WorkQueue.create(queueDir, names, TASK_SIZE);
+    assertEquals((DOCUMENTS + TASK_SIZE - 1) / TASK_SIZE, tasks);
+
+    // a worker that dies right after claiming leaves its task claimed until it is put back
+    assertEquals(1, run(queueDir, "crasher", "crash").waitFor());
+    WorkQueue queue = new WorkQueue(queueDir);
+    assertEquals(1, queue.getClaimedCount());
+    assertEquals(1, queue.requeue("crasher"));
+    assertEquals(tasks, queue.getPendingCount());
+
+    List<Process> processes = new ArrayList<>();
+    for (int p = 0; p < PROCESSES; p++) {
+      processes.add(run(queueDir, "worker" + p, "drain"));
+    }
+    for (Process process : processes) {
+      assertTrue(process.waitFor(2, TimeUnit.MINUTES));
+      assertEquals(0, process.exitValue());
+    }
+    assertTrue(queue.isDrained());
+    assertEquals(tasks, queue.getDoneCount());
+
+    List<String> processed = new ArrayList<>();
+    for (int p = 0; p < PROCESSES; p++) {
+      processed.addAll(Files.readAllLines(new File(queueDir, "worker" + p + ".out").toPath(), StandardCharsets.UTF_8));
+    }
+    Collections.sort(processed);
+    Collections.sort(names);
+    assertEquals(names, processed);
+  }
+
+  @Test
+  public void testNewClaimIsNotStale() throws Exception {
+    File queueDir = new File(this.folder.getRoot(), "queue");
+    WorkQueue.create(queueDir, Arrays.asList("a.txt", "b.txt"), 1);
+    // tasks that waited in pending/ for a long time keep that time when they are renamed
+    long hourAgo = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1);
+    for (File task : new File(queueDir, "pending").listFiles()) {
+      assertTrue(task.setLastModified(hourAgo));
+    }
+    WorkQueue queue = new WorkQueue(queueDir);
+    WorkQueue.Task task = queue.claim("worker");
+    assertNotNull(task);
+    assertEquals(0, queue.requeueStale(TimeUnit.MINUTES.toMillis(1)));
+    queue.complete(task);
+    assertEquals(1, queue.getDoneCount());
+  }
+
+  private static Process run(File queueDir, String id, String mode) throws IOException {
+    String java = new File(System.getProperty("java.home"), "bin/java").getPath();
+    return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), Worker.class.getName(),
+            queueDir.getPath(), id, mode).inheritIO().start();
+  }
+
+  /**
+   * The child process: in "crash" mode claims one task and exits without completing it, in "drain" mode claims
+   * tasks until the queue is empty, writing their documents to queue-dir/ID.out.
+   */
+  public static class Worker {
+    public static void main(String[] args) throws IOException {
+      File queueDir = new File(args[0]);
+      WorkQueue queue = new WorkQueue(queueDir);
+      if (args[2].equals("crash")) {
+        queue.claim(args[1]);
+        Runtime.getRuntime().halt(1);
+      }
+      List<String> processed = new ArrayList<>();
+      WorkQueue.Task task;
+      while ((task = queue.claim(args[1])) != null) {
+        processed.addAll(task.getDocuments());
+        queue.complete(task);
+      }
+      Files.write(new File(queueDir, args[1] + ".out").toPath(), processed, StandardCharsets.UTF_8);
+    }
+  }
+}